@@ -0,0 +1,139 @@
+/* 
+ * Copyright (C) 2002-2012 Raphael Mudge (rsmudge@gmail.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.dashnine.sleep;
+
+import javax.script.*;
+import java.util.*;
+
+import sleep.bridges.*;
+import sleep.engine.*;
+import sleep.interfaces.*;
+import sleep.runtime.*;
+
+/** The global variables of a script evaluated by the script engine.  $name is the value bound to name in the ENGINE_SCOPE
+    (or if it isn't there, the GLOBAL_SCOPE) bindings of the script context.  A bound value is turned into a scalar the first
+    time the script looks at it, so a script only pays for the bindings it uses.  Assigning a new value to a bound variable
+    puts the value back into the bindings.  Variables that aren't bound are kept here, same as DefaultVariable. */
+public class BindingsVariable implements Variable
+{
+    protected transient ScriptContext context;
+    protected Hashtable               values = new Hashtable();
+
+    /** a scalar for a bound value.  setting its value puts the new value into the bindings */
+    private static class BoundScalar extends Scalar
+    {
+        protected transient Bindings bindings;
+        protected String             name;
+
+        public BoundScalar(Bindings _bindings, String _name)
+        {
+           bindings = _bindings;
+           name     = _name;
+
+           super.setValue(ObjectUtilities.BuildScalar(true, bindings.get(name)));
+        }
+
+        private void update()
+        {
+           if (bindings != null)
+              bindings.put(name, objectValue());
+        }
+
+        public void setValue(ScalarType _value)
+        {
+           super.setValue(_value);
+           update();
+        }
+
+        public void setValue(ScalarArray _array)
+        {
+           super.setValue(_array);
+           update();
+        }
+
+        public void setValue(ScalarHash _hash)
+        {
+           super.setValue(_hash);
+           update();
+        }
+    }
+
+    public BindingsVariable(ScriptContext _context)
+    {
+        context = _context;
+    }
+
+    /** returns the bindings that hold the value for the specified variable, null if it isn't bound */
+    private Bindings getBindings(String key)
+    {
+        if (context == null || key.length() < 2 || key.charAt(0) != '$')
+           return null;
+
+        int scope = context.getAttributesScope(key.substring(1));
+        return scope == -1 ? null : context.getBindings(scope);
+    }
+
+    public boolean scalarExists(String key)
+    {
+        return values.containsKey(key) || getBindings(key) != null;
+    }
+
+    public Scalar getScalar(String key)
+    {
+        Scalar temp = (Scalar)values.get(key);
+
+        if (temp == null)
+        {
+           Bindings bindings = getBindings(key);
+
+           if (bindings != null)
+           {
+              temp = new BoundScalar(bindings, key.substring(1));
+              values.put(key, temp);
+           }
+        }
+
+        return temp;
+    }
+
+    public Scalar putScalar(String key, Scalar value)
+    {
+        Bindings bindings = getBindings(key);
+
+        if (bindings != null)
+           bindings.put(key.substring(1), value.objectValue());
+
+        return (Scalar)values.put(key, value);
+    }
+
+    public void removeScalar(String key)
+    {
+        values.remove(key);
+    }
+
+    public Variable createLocalVariableContainer()
+    {
+        return new DefaultVariable();
+    }
+
+    public Variable createInternalVariableContainer()
+    {
+        return new DefaultVariable();
+    }
+}
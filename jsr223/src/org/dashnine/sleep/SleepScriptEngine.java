@@ -36,7 +36,7 @@ import sleep.runtime.*;
 
 import sleep.error.*;
 
-public class SleepScriptEngine extends AbstractScriptEngine
+public class SleepScriptEngine extends AbstractScriptEngine implements Compilable, Invocable
 {
     // my factory, may be null
     private ScriptEngineFactory factory;
@@ -45,66 +45,231 @@ public class SleepScriptEngine extends AbstractScriptEngine
     private Hashtable       sharedEnvironment;
     private ScriptVariables variables;
 
+    /** the script instance functions are invoked in (see Invocable), created the first time it's needed */
+    private ScriptInstance  host;
+
+    /** functions looked up by invokeFunction, each is a version of the environment and the function it had then */
+    private Map             handles = new HashMap();
+
     public SleepScriptEngine()
     {
         loader = new ScriptLoader();
-        sharedEnvironment = new Hashtable();
+        sharedEnvironment = new EnvironmentTable();
     }
 
     /** executes a console command */
     public Object eval(String str, ScriptContext ctx) throws ScriptException
     {
-        ScriptInstance script = compile(str, ctx);
-        return evalScript(script, ctx);
+        return evalBlock(parse(str), ctx);
     }
 
     /** executes a script */
     public Object eval(Reader reader, ScriptContext ctx) throws ScriptException
     {
-        ScriptInstance script = compile(readFully(reader), ctx);
+        return evalBlock(parse(readFully(reader)), ctx);
+    }
+
+    /** a script parsed once and evaluated as many times as you like */
+    private class SleepCompiledScript extends CompiledScript
+    {
+        protected Block code;
+
+        public SleepCompiledScript(Block _code)
+        {
+           code = _code;
+        }
+
+        public Object eval(ScriptContext ctx) throws ScriptException
+        {
+           return evalBlock(code, ctx);
+        }
+
+        public ScriptEngine getEngine()
+        {
+           return SleepScriptEngine.this;
+        }
+    }
+
+    /** parses a script for later evaluation */
+    public CompiledScript compile(String script) throws ScriptException
+    {
+        return new SleepCompiledScript(parse(script));
+    }
+
+    /** parses a script for later evaluation */
+    public CompiledScript compile(Reader script) throws ScriptException
+    {
+        return new SleepCompiledScript(parse(readFully(script)));
+    }
+
+    /** runs parsed code in a new script instance.  the bridges are in the shared environment already (after the first
+        script) so this is cheap.  the loader doesn't keep a reference to the script. */
+    private Object evalBlock(Block code, ScriptContext ctx)
+    {
+        ScriptInstance script = loader.loadScriptNoReference("eval", code, sharedEnvironment);
+        script.addWarningWatcher(new WarningWatcher(ctx));
         return evalScript(script, ctx);
     }
 
-    private Object evalScript(ScriptInstance script, ScriptContext context)
+    /** returns the script instance functions are invoked in.  it is in concurrent mode so each thread invoking a function
+        gets its own local scopes */
+    private synchronized ScriptInstance getHost() throws ScriptException
+    {
+        if (host == null)
+        {
+           host = loader.loadScriptNoReference("invoke", parse(""), sharedEnvironment);
+           host.addWarningWatcher(new WarningWatcher(context));
+           host.setConcurrent(true);
+        }
+
+        return host;
+    }
+
+    /** returns the named function from the shared environment.  the lookup is kept until the environment changes */
+    private Function getFunction(String name) throws NoSuchMethodException
+    {
+        String key = name.charAt(0) == '&' ? name : "&" + name;
+
+        synchronized (handles)
+        {
+           int      version = EnvironmentTable.getVersion(sharedEnvironment);
+           Object[] handle  = (Object[])handles.get(key);
+
+           if (handle == null || version == -1 || ((Integer)handle[0]).intValue() != version)
+           {
+              Object temp = sharedEnvironment.get(key);
+
+              if (!(temp instanceof Function))
+                 throw new NoSuchMethodException(name);
+
+              handle = new Object[] { new Integer(version), temp };
+              handles.put(key, handle);
+           }
+
+           return (Function)handle[1];
+        }
+    }
+
+    /** turns the arguments of an invoke call into a Sleep argument stack */
+    private static Stack getArguments(Object[] args)
     {
-        /* install global bindings */
-        Bindings global = context.getBindings(ScriptContext.GLOBAL_SCOPE);
+        Stack temp = new Stack();
 
-        if (global != null)
+        if (args != null)
         {
-           Iterator i = global.entrySet().iterator();
-           while (i.hasNext())
+           for (int x = args.length - 1; x >= 0; x--)
            {
-              Map.Entry value = (Map.Entry)i.next();
-              script.getScriptVariables().putScalar("$" + value.getKey().toString(), ObjectUtilities.BuildScalar(true, value.getValue()));
+              temp.push(ObjectUtilities.BuildScalar(true, args[x]));
            }
         }
 
-        /* install local bindings */
-        Bindings local = context.getBindings(ScriptContext.ENGINE_SCOPE);
-        Map locals = new HashMap();
+        return temp;
+    }
+
+    /** a function called in the host with the bindings of the engine's context as globals, the same as an evaluated script
+        sees them.  the host's variables are put back afterwards, the call may be nested in another one */
+    private class ContextFunction implements Function
+    {
+        protected Function function;
+
+        public ContextFunction(Function _function)
+        {
+           function = _function;
+        }
+
+        public Scalar evaluate(String message, ScriptInstance script, Stack args)
+        {
+           ScriptVariables saved = script.getScriptVariables();
+           script.setScriptVariables(new ScriptVariables(new BindingsVariable(context)));
+
+           try
+           {
+              return function.evaluate(message, script, args);
+           }
+           finally
+           {
+              script.setScriptVariables(saved);
+           }
+        }
+    }
+
+    /** calls a function (a sub defined by an evaluated script or a built-in) */
+    public Object invokeFunction(String name, Object... args) throws ScriptException, NoSuchMethodException
+    {
+        Function function = new ContextFunction(getFunction(name));
+        return SleepUtils.runCode(function, name.charAt(0) == '&' ? name : "&" + name, getHost(), getArguments(args)).objectValue();
+    }
+
+    /** sends a message to a Sleep closure (the message is available to the closure as $0) */
+    public Object invokeMethod(Object thiz, String name, Object... args) throws ScriptException, NoSuchMethodException
+    {
+        if (!(thiz instanceof SleepClosure))
+           throw new IllegalArgumentException("not a Sleep closure: " + thiz);
+
+        return SleepUtils.runCode(new ContextFunction((SleepClosure)thiz), name, getHost(), getArguments(args)).objectValue();
+    }
 
-        if (local != null)
+    /** returns an implementation of the interface that calls the function with the same name as each method */
+    public <T> T getInterface(Class<T> clasz)
+    {
+        Function dispatch = new Function()
         {
-           Iterator i = local.entrySet().iterator();
-           while (i.hasNext())
+           public Scalar evaluate(String name, ScriptInstance script, Stack args)
            {
-              Map.Entry value = (Map.Entry)i.next();
-              locals.put("$" + value.getKey().toString(), ObjectUtilities.BuildScalar(true, value.getValue())  );
+              try
+              {
+                 return getFunction(name).evaluate("&" + name, script, args);
+              }
+              catch (NoSuchMethodException ex)
+              {
+                 script.getScriptEnvironment().flagError(ex);
+                 return SleepUtils.getEmptyScalar();
+              }
            }
+        };
+
+        try
+        {
+           return clasz.cast(ProxyInterface.BuildInterface(clasz, new ContextFunction(dispatch), getHost()));
         }
+        catch (ScriptException ex)
+        {
+           throw new IllegalStateException(ex.getMessage());
+        }
+    }
+
+    /** returns an implementation of the interface that sends each method call to the closure */
+    public <T> T getInterface(Object thiz, Class<T> clasz)
+    {
+        if (!(thiz instanceof SleepClosure))
+           throw new IllegalArgumentException("not a Sleep closure: " + thiz);
+
+        try
+        {
+           return clasz.cast(ProxyInterface.BuildInterface(clasz, new ContextFunction((SleepClosure)thiz), getHost()));
+        }
+        catch (ScriptException ex)
+        {
+           throw new IllegalStateException(ex.getMessage());
+        }
+    }
+
+    private Object evalScript(ScriptInstance script, ScriptContext context)
+    {
+        /* bindings are looked up as the script uses them */
+        script.setScriptVariables(new ScriptVariables(new BindingsVariable(context)));
 
-        if (locals.get("$" + ScriptEngine.FILENAME) != null)
+        if (context.getAttribute(ScriptEngine.FILENAME) != null)
         {
-           script.getScriptVariables().putScalar("$__SCRIPT__", (Scalar)locals.get("$" + ScriptEngine.FILENAME));
+           script.getScriptVariables().putScalar("$__SCRIPT__", ObjectUtilities.BuildScalar(true, context.getAttribute(ScriptEngine.FILENAME)));
         }        
 
-        if (locals.get("$" + ScriptEngine.ARGV) != null)
+        if (context.getAttribute(ScriptEngine.ARGV) != null)
         {
-           script.getScriptVariables().putScalar("@ARGV", (Scalar)locals.get("$" + ScriptEngine.ARGV));
+           script.getScriptVariables().putScalar("@ARGV", ObjectUtilities.BuildScalar(true, context.getAttribute(ScriptEngine.ARGV)));
         }
 
-        return SleepUtils.runCode(script.getRunnableScript(), "eval", script, SleepUtils.getArgumentStack(locals)).objectValue();
+        return SleepUtils.runCode(script.getRunnableScript(), "eval", script, new Stack()).objectValue();
     }
 
     private static class WarningWatcher implements RuntimeWarningWatcher
@@ -122,13 +287,11 @@ public class SleepScriptEngine extends AbstractScriptEngine
         }
     }
 
-    private ScriptInstance compile(String text, ScriptContext context) throws ScriptException
+    private Block parse(String text) throws ScriptException
     {
         try
         {
-           ScriptInstance script = loader.loadScript("eval", text, sharedEnvironment);
-           script.addWarningWatcher(new WarningWatcher(context));
-           return script;
+           return loader.compileScript("eval", text);
         }
         catch (YourCodeSucksException ex)
         {
@@ -0,0 +1,98 @@
+/* 
+ * Copyright (C) 2002-2012 Raphael Mudge (rsmudge@gmail.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package sleep.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import sleep.runtime.*;
+
+/** Measures what the engine allocates for small values: making int, boolean, and one character scalars directly and a
+ *  script loop with a counter and a predicate.  Run it with the GC profiler and look at gc.alloc.rate.norm (bytes per
+ *  operation):
+ *
+ *  <pre>gradle jmh -Pjmh.args="AllocationBenchmark -prof gc"</pre>
+ *
+ *  src/jmh/results/allocation.txt has the numbers from before and after the small value caches.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AllocationBenchmark
+{
+   protected ScriptInstance loop;
+
+   @Setup
+   public void setup() throws Exception
+   {
+      loop = InterpreterBenchmark.load("counter.sl",
+         "local('$x $count');\n" +
+         "for ($x = 0; $x < 1000; $x++) { if (($x % 3) == 0) { $count++; } }\n" +
+         "return $count;\n");
+   }
+
+   /** 0 to 99 as int scalars */
+   @Benchmark
+   public int smallInts()
+   {
+      int total = 0;
+      for (int x = 0; x < 100; x++)
+      {
+         total += SleepUtils.getScalar(x).intValue();
+      }
+      return total;
+   }
+
+   /** predicate results */
+   @Benchmark
+   public int booleans()
+   {
+      int total = 0;
+      for (int x = 0; x < 100; x++)
+      {
+         if (SleepUtils.isTrueScalar(SleepUtils.getScalar((x & 1) == 0)))
+            total++;
+      }
+      return total;
+   }
+
+   /** the empty string and single characters, as &split and &substr hand them out */
+   @Benchmark
+   public int characters()
+   {
+      String text  = "a,b,c,d,e,f,g,h,i,j";
+      int    total = 0;
+      for (int x = 0; x < text.length(); x++)
+      {
+         total += SleepUtils.getScalar(text.substring(x, x + 1)).toString().length();
+         total += SleepUtils.getScalar("").toString().length();
+      }
+      return total;
+   }
+
+   /** a script loop: the counter, the arithmetic, and the comparison results */
+   @Benchmark
+   public Scalar scriptLoop()
+   {
+      return loop.runScript();
+   }
+}
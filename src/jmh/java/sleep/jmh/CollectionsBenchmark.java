@@ -0,0 +1,189 @@
+/* 
+ * Copyright (C) 2002-2012 Raphael Mudge (rsmudge@gmail.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package sleep.jmh;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import sleep.runtime.*;
+import sleep.engine.types.*;
+
+/** Operations on the containers behind Sleep hashes (OpenHashContainer, HashContainer) and arrays (MyLinkedList, through ListContainer) */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CollectionsBenchmark
+{
+   /** the number of elements */
+   @Param({"1000"})
+   public int size;
+
+   protected Scalar[] keys;
+
+   @Setup
+   public void setup()
+   {
+      keys = new Scalar[size];
+      for (int x = 0; x < size; x++)
+      {
+         keys[x] = SleepUtils.getScalar("key" + x);
+      }
+   }
+
+   /** fills a hash, reads each key back, walks the keys, and removes half of the values */
+   @Benchmark
+   public int hashOperations()
+   {
+      return hashOperations(new HashContainer());
+   }
+
+   /** the same with the default hash container */
+   @Benchmark
+   public int openHashOperations()
+   {
+      return hashOperations(new OpenHashContainer());
+   }
+
+   /** looks up missing keys and asks for the keys after each batch, the pattern that used to clean out placeholders */
+   @Benchmark
+   public int hashMisses()
+   {
+      return hashMisses(new HashContainer());
+   }
+
+   /** the same with the default hash container */
+   @Benchmark
+   public int openHashMisses()
+   {
+      return hashMisses(new OpenHashContainer());
+   }
+
+   private int hashMisses(ScalarHash hash)
+   {
+      for (int x = 0; x < keys.length; x += 2)
+      {
+         hash.getAt(keys[x]).setValue(SleepUtils.getScalar(x));
+      }
+
+      int total = 0;
+      for (int x = 1; x < keys.length; x += 2)
+      {
+         total += hash.getAt(keys[x]).intValue();
+
+         if ((x % 64) == 1)
+            total += hash.keys().size();
+      }
+
+      return total;
+   }
+
+   private int hashOperations(ScalarHash hash)
+   {
+
+      for (int x = 0; x < keys.length; x++)
+      {
+         hash.getAt(keys[x]).setValue(SleepUtils.getScalar(x));
+      }
+
+      int total = 0;
+      for (int x = 0; x < keys.length; x++)
+      {
+         total += hash.getAt(keys[x]).intValue();
+      }
+
+      total += hash.keys().size();
+
+      for (int x = 0; x < keys.length; x += 2)
+      {
+         hash.remove(hash.getAt(keys[x]));
+      }
+
+      return total + hash.getData().size();
+   }
+
+   /** appends to a list, reads it by index and with an iterator, takes a sublist, and empties it from the front */
+   @Benchmark
+   public int listOperations()
+   {
+      MyLinkedList list = new MyLinkedList();
+
+      for (int x = 0; x < size; x++)
+      {
+         list.add(SleepUtils.getScalar(x));
+      }
+
+      int total = 0;
+      for (int x = 0; x < size; x += 10)
+      {
+         total += ((Scalar)list.get(x)).intValue();
+      }
+
+      Iterator i = list.iterator();
+      while (i.hasNext())
+      {
+         total += ((Scalar)i.next()).intValue();
+      }
+
+      total += list.subList(size / 4, size / 2).size();
+
+      while (!list.isEmpty())
+      {
+         list.remove(0);
+      }
+
+      return total;
+   }
+
+   /** the same through the ScalarArray interface a script sees */
+   @Benchmark
+   public int arrayOperations()
+   {
+      ScalarArray array = new ListContainer();
+
+      for (int x = 0; x < size; x++)
+      {
+         array.push(SleepUtils.getScalar(x));
+      }
+
+      int total = 0;
+      for (int x = 0; x < size; x += 10)
+      {
+         total += array.getAt(x).intValue();
+      }
+
+      array.sort(new Comparator()
+      {
+         public int compare(Object a, Object b)
+         {
+            return ((Scalar)b).intValue() - ((Scalar)a).intValue();
+         }
+      });
+
+      while (array.size() > 0)
+      {
+         total += array.pop().intValue();
+      }
+
+      return total;
+   }
+}
@@ -0,0 +1,75 @@
+/* 
+ * Copyright (C) 2002-2012 Raphael Mudge (rsmudge@gmail.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package sleep.jmh;
+
+import java.io.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import sleep.bridges.io.IOObject;
+
+/** Reads lines with IOObject.readLine, the method behind &amp;readln and &amp;readAll */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IOBenchmark
+{
+   /** the length of each line */
+   @Param({"16", "256"})
+   public int length;
+
+   protected byte[] data;
+
+   @Setup
+   public void setup()
+   {
+      StringBuffer buffer = new StringBuffer();
+
+      for (int x = 0; x < 10000; x++)
+      {
+         for (int y = 0; y < length; y++)
+         {
+            buffer.append((char)('a' + ((x + y) % 26)));
+         }
+         buffer.append(x % 2 == 0 ? "\n" : "\r\n");
+      }
+
+      data = buffer.toString().getBytes();
+   }
+
+   @Benchmark
+   public int readLine()
+   {
+      IOObject io = new IOObject();
+      io.openRead(new ByteArrayInputStream(data));
+
+      int    total = 0;
+      String line  = io.readLine();
+      while (line != null)
+      {
+         total += line.length();
+         line   = io.readLine();
+      }
+
+      return total;
+   }
+}
@@ -0,0 +1,77 @@
+/* 
+ * Copyright (C) 2002-2012 Raphael Mudge (rsmudge@gmail.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package sleep.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import sleep.runtime.*;
+
+/** Calls Java methods from a script (ObjectAccess and ObjectNew): instance methods, static methods, and constructors, each
+ *  resolved and invoked through reflection */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InteropBenchmark
+{
+   protected ScriptInstance instance;
+   protected ScriptInstance statics;
+   protected ScriptInstance constructors;
+
+   @Setup
+   public void setup() throws Exception
+   {
+      instance = InterpreterBenchmark.load("instance.sl",
+         "local('$x $buffer');\n" +
+         "$buffer = [new StringBuffer];\n" +
+         "for ($x = 0; $x < 1000; $x++) { [$buffer append: 'x']; [$buffer length]; }\n" +
+         "return [$buffer length];\n");
+
+      statics = InterpreterBenchmark.load("statics.sl",
+         "local('$x $total');\n" +
+         "for ($x = 0; $x < 1000; $x++) { $total = [Math max: $x, [Math abs: $total]]; }\n" +
+         "return $total;\n");
+
+      constructors = InterpreterBenchmark.load("constructors.sl",
+         "local('$x $temp');\n" +
+         "for ($x = 0; $x < 1000; $x++) { $temp = [new java.util.ArrayList: 16]; [$temp add: $x]; }\n" +
+         "return [$temp size];\n");
+   }
+
+   @Benchmark
+   public Scalar instanceMethods()
+   {
+      return instance.runScript();
+   }
+
+   @Benchmark
+   public Scalar staticMethods()
+   {
+      return statics.runScript();
+   }
+
+   @Benchmark
+   public Scalar constructors()
+   {
+      return constructors.runScript();
+   }
+}
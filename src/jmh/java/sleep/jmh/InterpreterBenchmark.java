@@ -0,0 +1,133 @@
+/* 
+ * Copyright (C) 2002-2012 Raphael Mudge (rsmudge@gmail.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package sleep.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import sleep.runtime.*;
+
+/** Runs small scripts through Block.evaluate: a loop with arithmetic and locals, closure calls, a recursive function, and
+ *  arithmetic on strings split out of a line of text, and a string built up with the . operator.
+ *  Each script is loaded once and run once per benchmark invocation */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InterpreterBenchmark
+{
+   protected ScriptInstance loop;
+   protected ScriptInstance closures;
+   protected ScriptInstance recursion;
+   protected ScriptInstance strings;
+   protected ScriptInstance concat;
+   protected ScriptInstance map;
+   protected ScriptInstance pmap;
+
+   public static ScriptInstance load(String name, String code) throws Exception
+   {
+      ScriptLoader   loader = new ScriptLoader();
+      ScriptInstance script = loader.loadScript(name, code, null);
+      return script;
+   }
+
+   @Setup
+   public void setup() throws Exception
+   {
+      loop = load("loop.sl",
+         "local('$x $total');\n" +
+         "for ($x = 0; $x < 10000; $x++) { $total = $total + ($x % 7) * 3; }\n" +
+         "return $total;\n");
+
+      closures = load("closures.sl",
+         "local('$x $total $add');\n" +
+         "$add = lambda({ return $1 + $step; }, $step => 3);\n" +
+         "for ($x = 0; $x < 2000; $x++) { $total = [$add: $total]; }\n" +
+         "return $total;\n");
+
+      recursion = load("recursion.sl",
+         "sub fib { return iff($1 < 2, $1, fib($1 - 1) + fib($1 - 2)); }\n" +
+         "return fib(15);\n");
+
+      strings = load("strings.sl",
+         "local('$x $d $total @data');\n" +
+         "@data = split(',', '1, 2,abc,4.5, x,6,7,8');\n" +
+         "for ($x = 0; $x < 1000; $x++) { foreach $d (@data) { $total = $total + $d; } }\n" +
+         "return $total;\n");
+
+      concat = load("concat.sl",
+         "local('$x $buffer');\n" +
+         "$buffer = '';\n" +
+         "for ($x = 0; $x < 5000; $x++) { $buffer = $buffer . \"line $x of the report\\n\"; }\n" +
+         "return strlen($buffer);\n");
+
+      String data = "global('@data');\n" +
+         "if (size(@data) == 0) { @data = @(); for ($x = 0; $x < 20000; $x++) { push(@data, $x); } }\n";
+
+      map = load("map.sl", data +
+         "return size(map({ return ($1 * 31) % 17 + 1; }, @data));\n");
+
+      pmap = load("pmap.sl", data +
+         "return size(pmap({ return ($1 * 31) % 17 + 1; }, @data));\n");
+   }
+
+   @Benchmark
+   public Scalar loop()
+   {
+      return loop.runScript();
+   }
+
+   @Benchmark
+   public Scalar closureCalls()
+   {
+      return closures.runScript();
+   }
+
+   @Benchmark
+   public Scalar recursion()
+   {
+      return recursion.runScript();
+   }
+
+   @Benchmark
+   public Scalar stringArithmetic()
+   {
+      return strings.runScript();
+   }
+
+   @Benchmark
+   public Scalar concatenation()
+   {
+      return concat.runScript();
+   }
+
+   @Benchmark
+   public Scalar map()
+   {
+      return map.runScript();
+   }
+
+   @Benchmark
+   public Scalar parallelMap()
+   {
+      return pmap.runScript();
+   }
+}
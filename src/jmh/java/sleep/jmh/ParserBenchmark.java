@@ -0,0 +1,148 @@
+/* 
+ * Copyright (C) 2002-2012 Raphael Mudge (rsmudge@gmail.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package sleep.jmh;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import sleep.engine.Block;
+import sleep.engine.BlockFormat;
+import sleep.parser.LazyBlock;
+import sleep.parser.Parser;
+import sleep.runtime.BlockCache;
+import sleep.runtime.ScriptLoader;
+
+/** Parses (and generates code for) a large script.  The script is made up of a number of subroutines with loops, 
+ *  conditions, closures, string interpolation, and object expressions so each part of the parser gets some work */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark
+{
+   /** the number of subroutines in the script */
+   @Param({"100", "1000"})
+   public int subs;
+
+   protected String       code;
+   protected ScriptLoader loader;
+   protected byte[]       binary;
+   protected byte[]       serialized;
+
+   @Setup
+   public void setup()
+   {
+      StringBuffer buffer = new StringBuffer();
+
+      for (int x = 0; x < subs; x++)
+      {
+         buffer.append("sub function" + x + "\n");
+         buffer.append("{\n");
+         buffer.append("   local('$x $total @data %table');\n");
+         buffer.append("   @data = @(1, 2, 3, \"four\", 'five');\n");
+         buffer.append("   %table = %(a => 1, b => $1, c => @data);\n");
+         buffer.append("   for ($x = 0; $x < $1; $x++)\n");
+         buffer.append("   {\n");
+         buffer.append("      if ($x % 2 == 0 && $x > 3) { $total += $x * 2; }\n");
+         buffer.append("      else if ($x isin \"abc\") { $total = $total . \"value: $x and @data\"; }\n");
+         buffer.append("      else { push(@data, [new StringBuffer: \"x\"]); }\n");
+         buffer.append("   }\n");
+         buffer.append("   return map({ return $1 + " + x + "; }, @data);\n");
+         buffer.append("}\n\n");
+      }
+
+      code = buffer.toString();
+
+      loader = new ScriptLoader();
+      ScriptLoader.setGlobalCache(new BlockCache(16, 0));
+
+      try
+      {
+         Block block = parse();
+
+         ByteArrayOutputStream out = new ByteArrayOutputStream();
+         BlockFormat.write(block, out);
+         binary = out.toByteArray();
+
+         out = new ByteArrayOutputStream();
+         ObjectOutputStream oout = new ObjectOutputStream(out);
+         oout.writeObject(block);
+         oout.close();
+         serialized = out.toByteArray();
+      }
+      catch (Exception ex)
+      {
+         throw new RuntimeException(ex);
+      }
+   }
+
+   @TearDown
+   public void teardown()
+   {
+      ScriptLoader.setGlobalCache((BlockCache)null);
+   }
+
+   @Benchmark
+   public Block parse() throws Exception
+   {
+      Parser parser = new Parser("parser.sl", code);
+      parser.parse();
+      return parser.getRunnableBlock();
+   }
+
+   /** parses the script with lazy compilation of sub bodies on, none of the subs are called so no body is compiled */
+   @Benchmark
+   public Block lazyParse() throws Exception
+   {
+      LazyBlock.setEnabled(true);
+      try
+      {
+         return parse();
+      }
+      finally
+      {
+         LazyBlock.setEnabled(false);
+      }
+   }
+
+   /** the same script through the ScriptLoader cache: hashing the text instead of parsing it */
+   @Benchmark
+   public Block cachedCompile() throws Exception
+   {
+      return loader.compileScript("parser.sl", code);
+   }
+
+   /** reads the compiled script from the format ScriptLoader.saveSerialized writes */
+   @Benchmark
+   public Block loadBinary() throws Exception
+   {
+      return BlockFormat.read(ByteBuffer.wrap(binary));
+   }
+
+   /** reads the compiled script with Java serialization (how saveSerialized used to save scripts) */
+   @Benchmark
+   public Block loadSerialized() throws Exception
+   {
+      return (Block)new ObjectInputStream(new ByteArrayInputStream(serialized)).readObject();
+   }
+}
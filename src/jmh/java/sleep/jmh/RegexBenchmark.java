@@ -0,0 +1,75 @@
+/* 
+ * Copyright (C) 2002-2012 Raphael Mudge (rsmudge@gmail.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package sleep.jmh;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import sleep.runtime.*;
+
+/** Exercises the RegexBridge: the ismatch predicate with &amp;matched, &amp;matches, &amp;replace, and &amp;split over a 
+ *  set of web server log lines */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RegexBenchmark
+{
+   protected ScriptInstance script;
+
+   @Setup
+   public void setup() throws Exception
+   {
+      script = InterpreterBenchmark.load("regex.sl",
+         "for ($x = 0; $x < 200; $x++) { push(@lines, \"192.168.0. $+ $x - - [10/Oct/2000:13:55: $+ $x -0700] \\\"GET /page $+ $x $+ .html HTTP/1.0\\\" 200 $x\"); }\n" +
+         "sub ismatchLines { local('$line $total'); foreach $line (@lines) { if ($line ismatch '(\\S+) .*?\"GET (\\S+) .*') { $total += strlen(matched()[1]); } } return $total; }\n" +
+         "sub matchesLines { local('$line $total'); foreach $line (@lines) { $total += size(matches($line, '(\\d+)')); } return $total; }\n" +
+         "sub replaceLines { local('$line $total'); foreach $line (@lines) { $total += strlen(replace($line, '\\d+', '#')); } return $total; }\n" +
+         "sub splitLines { local('$line $total'); foreach $line (@lines) { $total += size(split('\\s+', $line)); } return $total; }\n");
+
+      script.runScript();
+   }
+
+   @Benchmark
+   public Scalar ismatch()
+   {
+      return script.callFunction("&ismatchLines", new Stack());
+   }
+
+   @Benchmark
+   public Scalar matches()
+   {
+      return script.callFunction("&matchesLines", new Stack());
+   }
+
+   @Benchmark
+   public Scalar replace()
+   {
+      return script.callFunction("&replaceLines", new Stack());
+   }
+
+   @Benchmark
+   public Scalar split()
+   {
+      return script.callFunction("&splitLines", new Stack());
+   }
+}
@@ -31,6 +31,7 @@ import java.nio.*;
 import sleep.bridges.io.*;
 
 import java.util.zip.*;
+import java.util.concurrent.*;
 import javax.crypto.*;
 import java.security.*;
 
@@ -437,6 +438,59 @@ public class BasicIO implements Loadable, Function
        }
     }
 
+    /** the executor &fork runs its forks on, null means a new thread for each fork */
+    private static Executor forkExecutor = createForkExecutor(System.getProperty("sleep.fork.executor", "thread"));
+
+    /** creates an executor for &fork from a description: thread (a new thread for each fork, the default), virtual (a
+        virtual thread for each fork, needs Java 21 or later), or pool:N (a pool of N daemon threads, N defaults to the
+        number of processors).  Returns null for thread or if virtual threads aren't available. */
+    public static Executor createForkExecutor(String description)
+    {
+       if (description.equals("virtual"))
+       {
+          try
+          {
+             return (Executor)Executors.class.getMethod("newVirtualThreadPerTaskExecutor", new Class[0]).invoke(null, new Object[0]);
+          }
+          catch (Exception ex)
+          {
+             return null;
+          }
+       }
+       else if (description.startsWith("pool"))
+       {
+          int size = Runtime.getRuntime().availableProcessors();
+          if (description.startsWith("pool:"))
+             size = Integer.parseInt(description.substring(5));
+
+          return Executors.newFixedThreadPool(size, new ThreadFactory()
+          {
+             public Thread newThread(Runnable r)
+             {
+                Thread temp = new Thread(r, "sleep fork pool");
+                temp.setDaemon(true);
+                return temp;
+             }
+          });
+       }
+
+       return null;
+    }
+
+    /** sets the executor &fork runs its forks on.  null (the default) starts a new thread for each fork.  A fork holds its
+        thread until it returns, so a fork that waits on another fork can deadlock a pool that is too small.  This can also
+        be set with -Dsleep.fork.executor=thread|virtual|pool:N */
+    public static void setForkExecutor(Executor executor)
+    {
+       forkExecutor = executor;
+    }
+
+    /** returns the executor &fork runs its forks on, null if each fork gets a new thread */
+    public static Executor getForkExecutor()
+    {
+       return forkExecutor;
+    }
+
     private static class fork implements Function
     {
        public Scalar evaluate(String n, ScriptInstance i, Stack l)
@@ -477,14 +531,50 @@ public class BasicIO implements Loadable, Function
           
              child.getScriptVariables().putScalar("$source", SleepUtils.getScalar(child_io));
 
-             Thread temp = new Thread(child, "fork of " + child.getRunnableBlock().getSourceLocation());
-
-             parent_io.setThread(temp);
-             child_io.setThread(temp);
+             final String         name     = "fork of " + child.getRunnableBlock().getSourceLocation();
+             final ScriptInstance fchild   = child;
+             final IOObject       fio      = child_io;
+             Executor             executor = forkExecutor;
 
              child.setParent(parent_io);
 
-             temp.start();
+             if (executor == null)
+             {
+                Thread temp = new Thread(child, name);
+
+                parent_io.setThread(temp);
+                child_io.setThread(temp);
+
+                temp.start();
+             }
+             else
+             {
+                FutureTask task = new FutureTask(new Runnable()
+                {
+                   public void run()
+                   {
+                      Thread self = Thread.currentThread();
+                      String old  = self.getName();
+                      self.setName(name);
+
+                      try
+                      {
+                         fchild.run();
+                      }
+                      finally
+                      {
+                         /* the thread outlives the fork, so close the pipe or the parent won't see the end of it */
+                         fio.close();
+                         self.setName(old);
+                      }
+                   }
+                }, null);
+
+                parent_io.setTask(task);
+                child_io.setTask(task);
+
+                executor.execute(task);
+             }
           }
           catch (Exception ex)
           {
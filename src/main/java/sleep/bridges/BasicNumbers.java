@@ -93,6 +93,62 @@ public class BasicNumbers implements Predicate, Operator, Loadable, Function
        temp.put("&srand", sanitized);
     }
 
+    /** returns true if each argument is an array still kept in primitive form */
+    private static boolean isPrimitive(Stack args)
+    {
+       if (args.isEmpty())
+          return false;
+
+       for (int x = 0; x < args.size(); x++)
+       {
+          ScalarArray array = ((Scalar)args.get(x)).getArray();
+          if (!(array instanceof PrimitiveArray) || !((PrimitiveArray)array).isPrimitive())
+             return false;
+       }
+
+       return true;
+    }
+
+    /** &amp;sum of primitive arrays: the sum of one array or the sum of the products of the elements of several arrays */
+    private static double sumPrimitive(Stack args)
+    {
+       PrimitiveArray first = (PrimitiveArray)((Scalar)args.pop()).getArray();
+
+       if (args.isEmpty())
+          return first.sum();
+
+       PrimitiveArray others[] = new PrimitiveArray[args.size()];
+       for (int x = 0; x < others.length; x++)
+       {
+          others[x] = (PrimitiveArray)((Scalar)args.pop()).getArray();
+       }
+
+       double result = 0.0;
+       int    size   = first.size();
+
+       for (int x = 0; x < size; x++)
+       {
+          double temp = first.doubleAt(x);
+
+          for (int y = 0; y < others.length; y++)
+          {
+             if (x < others[y].size())
+             {
+                temp *= others[y].doubleAt(x);
+             }
+             else
+             {
+                temp = 0.0;
+                break;
+             }
+          }
+
+          result += temp;
+       }
+
+       return result;
+    }
+
     public Scalar evaluate(String name, ScriptInstance si, Stack args)
     {
        if (name.equals("&abs")) { return SleepUtils.getScalar(Math.abs(BridgeUtilities.getDouble(args, 0.0))); }
@@ -127,6 +183,10 @@ public class BasicNumbers implements Predicate, Operator, Loadable, Function
        else if (name.equals("&radians")) { return SleepUtils.getScalar(Math.toRadians(BridgeUtilities.getDouble(args, 0.0))); }
        else if (name.equals("&degrees")) { return SleepUtils.getScalar(Math.toDegrees(BridgeUtilities.getDouble(args, 0.0))); }
        else if (name.equals("&exp")) { return SleepUtils.getScalar(Math.exp(BridgeUtilities.getDouble(args, 0.0))); }
+       else if (name.equals("&sum") && isPrimitive(args))
+       {
+           return SleepUtils.getScalar(sumPrimitive(args));
+       }
        else if (name.equals("&sum"))
        {
            Iterator i = BridgeUtilities.getIterator(args, si);
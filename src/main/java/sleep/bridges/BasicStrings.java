@@ -24,6 +24,8 @@ import sleep.interfaces.*;
 import sleep.runtime.*;
 
 import sleep.parser.ParserConfig;
+import sleep.engine.types.PrimitiveArray;
+import sleep.engine.types.ConcatValue;
 
 /** provides basic string parsing facilities */
 public class BasicStrings implements Loadable, Predicate
@@ -342,7 +344,12 @@ public class BasicStrings implements Loadable, Predicate
     {
         public Scalar evaluate(String n, ScriptInstance i, Stack l)
         {
-           return SleepUtils.getScalar(l.pop().toString().length());
+           Scalar value = (Scalar)l.pop();
+
+           if (value.getActualValue() instanceof ConcatValue)
+              return SleepUtils.getScalar(((ConcatValue)value.getActualValue()).length());
+
+           return SleepUtils.getScalar(value.toString().length());
         }
     }
 
@@ -489,11 +496,13 @@ public class BasicStrings implements Loadable, Predicate
            }
            else if (n.equals("&sortn"))
            {
-              array.sort(new CompareNumbers());
+              if (!(array instanceof PrimitiveArray) || !((PrimitiveArray)array).sortNumbers(true))
+                 array.sort(new CompareNumbers());
            }
            else if (n.equals("&sortd"))
            {
-              array.sort(new CompareDoubles());
+              if (!(array instanceof PrimitiveArray) || !((PrimitiveArray)array).sortNumbers(false))
+                 array.sort(new CompareDoubles());
            }
 
            return SleepUtils.getArrayScalar(array);
@@ -568,7 +577,7 @@ public class BasicStrings implements Loadable, Predicate
 
            if (o.equals("."))
            {
-              return SleepUtils.getScalar(left.toString() + right.toString());
+              return ConcatValue.concat(left, right);
            }
  
            return null;
@@ -24,6 +24,8 @@ import sleep.interfaces.*;
 import sleep.runtime.*;
 
 import java.io.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.net.URL;
 import java.net.URLClassLoader;
 
@@ -80,6 +82,11 @@ public class BasicUtilities implements Function, Loadable, Predicate
         temp.put("&subarray", this);
         temp.put("&sublist", this);
         temp.put("&copy",  new copy());
+
+        Function f_primitives = new primitives();
+        temp.put("&ints",    f_primitives);   // &ints(size or @array) = @array of int values
+        temp.put("&longs",   f_primitives);
+        temp.put("&doubles", f_primitives);
         temp.put("&setRemovalPolicy", this);
         temp.put("&setMissPolicy", this);
 
@@ -91,6 +98,12 @@ public class BasicUtilities implements Function, Loadable, Predicate
         temp.put("&map",    map_f);
         temp.put("&filter",    map_f);
 
+        parallel parallel_f = new parallel();
+
+        temp.put("&pmap",    parallel_f);
+        temp.put("&pfilter", parallel_f);
+        temp.put("&preduce", parallel_f);
+
         Function f_cast = new f_cast();
         temp.put("&cast",    f_cast);
         temp.put("&casti",   f_cast);
@@ -420,6 +433,55 @@ public class BasicUtilities implements Function, Loadable, Predicate
        }
     }
 
+    private static class primitives implements Function
+    {
+       public Scalar evaluate(String n, ScriptInstance si, Stack l)
+       {
+          int kind = n.equals("&ints") ? PrimitiveArray.INT : (n.equals("&longs") ? PrimitiveArray.LONG : PrimitiveArray.DOUBLE);
+
+          if (l.isEmpty())
+          {
+             return SleepUtils.getArrayScalar(new PrimitiveArray(kind, 0));
+          }
+
+          Scalar source = (Scalar)l.peek();
+
+          if (source.getArray() != null || SleepUtils.isFunctionScalar(source))
+          {
+             PrimitiveArray value = new PrimitiveArray(kind, 0);
+             Iterator       i     = BridgeUtilities.getIterator(l, si);
+
+             while (i.hasNext())
+             {
+                Scalar next = (Scalar)i.next();
+
+                if (kind == PrimitiveArray.INT)
+                {
+                   value.push(SleepUtils.getScalar(next.intValue()));
+                }
+                else if (kind == PrimitiveArray.LONG)
+                {
+                   value.push(SleepUtils.getScalar(next.longValue()));
+                }
+                else
+                {
+                   value.push(SleepUtils.getScalar(next.doubleValue()));
+                }
+             }
+
+             return SleepUtils.getArrayScalar(value);
+          }
+
+          int size = BridgeUtilities.getInt(l, 0);
+          if (size < 0)
+          {
+             throw new IllegalArgumentException(n + ": array size must be >= 0, not " + size);
+          }
+
+          return SleepUtils.getArrayScalar(new PrimitiveArray(kind, size));
+       }
+    }
+
     private static class f_cast implements Function
     {
        public Scalar evaluate(String n, ScriptInstance si, Stack l)
@@ -686,13 +748,239 @@ public class BasicUtilities implements Function, Loadable, Predicate
        }
     }
 
+    /** the pool &pmap, &pfilter, and &preduce run on, created the first time it's needed */
+    private static ForkJoinPool parallelPool = null;
+
+    /** the fewest elements worth handing to a worker */
+    private static final int PARALLEL_CHUNK = Integer.getInteger("sleep.parallel.chunk", 64).intValue();
+
+    /** returns the pool &pmap, &pfilter, and &preduce run on.  Its size comes from -Dsleep.parallel.threads (the default is
+        the number of processors) */
+    public static synchronized ForkJoinPool getParallelPool()
+    {
+       if (parallelPool == null)
+       {
+          parallelPool = new ForkJoinPool(Integer.getInteger("sleep.parallel.threads", Runtime.getRuntime().availableProcessors()).intValue());
+       }
+
+       return parallelPool;
+    }
+
+    /** sets the pool &pmap, &pfilter, and &preduce run on */
+    public static synchronized void setParallelPool(ForkJoinPool pool)
+    {
+       parallelPool = pool;
+    }
+
+    /** One piece of a &pmap, &pfilter, or &preduce: a run of elements evaluated by its own fork of the script.  The fork has
+        its own environment (see ScriptInstance.fork) and local scopes but it shares the global variables of the script. */
+    private static class chunk extends RecursiveAction
+    {
+       protected String         name;
+       protected SleepClosure   function;
+       protected ScriptInstance script;
+       protected Scalar[]       values;
+       protected int            start;
+       protected int            end;
+
+       /** the results of a &pmap (written straight into the results of the whole call) or a &pfilter */
+       protected Scalar[]       results;
+       protected List           filtered;
+
+       /** the result of a &preduce */
+       protected Scalar         reduced;
+
+       /** the value of an exception thrown by the function, null if there wasn't one */
+       protected Scalar         thrown;
+
+       /** true if the calling script will catch an exception thrown by the function */
+       protected boolean        handled;
+
+       public chunk(String _name, SleepClosure _function, ScriptInstance _script, Scalar[] _values, Scalar[] _results, int _start, int _end)
+       {
+          name     = _name;
+          function = _function;
+          script   = _script;
+          values   = _values;
+          results  = _results;
+          start    = _start;
+          end      = _end;
+       }
+
+       /** evaluates this chunk with a fork of the script */
+       protected void compute()
+       {
+          ScriptInstance worker = script.fork();
+          worker.setScriptVariables(new ScriptVariables(script.getScriptVariables().getGlobalVariables()));
+          worker.getScriptEnvironment().setOuterExceptionHandler(handled);
+          evaluate(worker);
+       }
+
+       /** evaluates this chunk with the specified script instance */
+       public void evaluate(ScriptInstance si)
+       {
+          ScriptEnvironment env    = si.getScriptEnvironment();
+          Stack             locals = new Stack();
+
+          if (name.equals("&preduce"))
+          {
+             /* same as &reduce */
+             Scalar a = start < end ? values[start] : SleepUtils.getEmptyScalar();
+             Scalar b = start + 1 < end ? values[start + 1] : SleepUtils.getEmptyScalar();
+
+             locals.push(a);
+             locals.push(b);
+             a = function.callClosure("eval", si, locals);
+             locals.clear();
+
+             for (int x = start + 2; x < end && !env.isThrownValue(); x++)
+             {
+                locals.push(values[x]);
+                locals.push(a);
+                a = function.callClosure("eval", si, locals);
+                locals.clear();
+             }
+
+             reduced = a;
+          }
+          else
+          {
+             if (name.equals("&pfilter"))
+                filtered = new ArrayList(end - start);
+
+             for (int x = start; x < end && !env.isThrownValue(); x++)
+             {
+                locals.push(values[x]);
+                Scalar val = function.callClosure("eval", si, locals);
+                locals.clear();
+
+                if (filtered == null)
+                {
+                   results[x] = SleepUtils.getScalar(val);
+                }
+                else if (!SleepUtils.isEmptyScalar(val))
+                {
+                   filtered.add(SleepUtils.getScalar(val));
+                }
+             }
+          }
+
+          if (env.isThrownValue())
+             thrown = env.getReturnValue();
+       }
+    }
+
+    /** &pmap, &pfilter, and &preduce work like &map, &filter, and &reduce but split the elements into runs that are
+        evaluated at the same time on the parallel pool.  The results are in the same order as the elements.  Each run has
+        its own fork of the script so the function should only read global variables and it shouldn't keep state of its
+        own.  &preduce combines the results of the runs (in order) with the function too, so the function has to be
+        associative (i.e. +, max). */
+    private static class parallel implements Function
+    {
+       public Scalar evaluate(String n, ScriptInstance si, Stack l)
+       {
+          SleepClosure temp  = BridgeUtilities.getFunction(l, si);
+          Iterator     i     = BridgeUtilities.getIterator(l, si);
+
+          List items = new ArrayList();
+          while (i.hasNext())
+          {
+             items.add(i.next());
+          }
+
+          Scalar[] values  = (Scalar[])items.toArray(new Scalar[items.size()]);
+          Scalar[] results = n.equals("&pmap") ? new Scalar[values.length] : null;
+
+          ForkJoinPool pool  = getParallelPool();
+          int          count = Math.max(1, Math.min(pool.getParallelism() * 4, (values.length + PARALLEL_CHUNK - 1) / PARALLEL_CHUNK));
+
+          if (n.equals("&preduce"))
+             count = Math.max(1, Math.min(count, values.length / 2));     /* each run reduces at least two elements */
+          chunk[]      work  = new chunk[count];
+
+          for (int x = 0; x < count; x++)
+          {
+             work[x] = new chunk(n, temp, si, values, results, (int)((long)values.length * x / count), (int)((long)values.length * (x + 1) / count));
+             work[x].handled = si.getScriptEnvironment().isExceptionHandlerInstalled();
+          }
+
+          if (count == 1)
+          {
+             /* not worth a fork, do it here */
+             work[0].evaluate(si);
+          }
+          else
+          {
+             for (int x = 0; x < count; x++)
+             {
+                pool.execute(work[x]);
+             }
+
+             for (int x = 0; x < count; x++)
+             {
+                work[x].join();
+             }
+          }
+
+          /* the first exception (in element order) is thrown from here */
+          for (int x = 0; x < count; x++)
+          {
+             if (work[x].thrown != null)
+             {
+                si.getScriptEnvironment().flagReturn(work[x].thrown, ScriptEnvironment.FLOW_CONTROL_THROW);
+                return SleepUtils.getEmptyScalar();
+             }
+          }
+
+          Scalar rv = SleepUtils.getArrayScalar();
+
+          if (n.equals("&pmap"))
+          {
+             for (int x = 0; x < results.length; x++)
+             {
+                rv.getArray().push(results[x]);
+             }
+          }
+          else if (n.equals("&pfilter"))
+          {
+             for (int x = 0; x < count; x++)
+             {
+                Iterator j = work[x].filtered.iterator();
+                while (j.hasNext())
+                {
+                   rv.getArray().push((Scalar)j.next());
+                }
+             }
+          }
+          else
+          {
+             rv = work[0].reduced;
+
+             Stack locals = new Stack();
+             for (int x = 1; x < count && !si.getScriptEnvironment().isThrownValue(); x++)
+             {
+                locals.push(work[x].reduced);
+                locals.push(rv);
+                rv = temp.callClosure("eval", si, locals);
+                locals.clear();
+             }
+          }
+
+          return rv;
+       }
+    }
+
     private static class copy implements Function
     {
        public Scalar evaluate(String n, ScriptInstance si, Stack l)
        {
           Scalar doit = BridgeUtilities.getScalar(l);
 
-          if (doit.getArray() != null || SleepUtils.isFunctionScalar(doit))
+          if (doit.getArray() instanceof PrimitiveArray && ((PrimitiveArray)doit.getArray()).isPrimitive())
+          {
+             return SleepUtils.getArrayScalar(((PrimitiveArray)doit.getArray()).copy());
+          }
+          else if (doit.getArray() != null || SleepUtils.isFunctionScalar(doit))
           {
              Scalar      value = SleepUtils.getArrayScalar();
              Iterator    i     = doit.getArray() == null ? SleepUtils.getFunctionFromScalar(doit, si).scalarIterator() : doit.getArray().scalarIterator();
@@ -323,6 +323,17 @@ public class BridgeUtilities
       return toValue;
    }
 
+   /** the names $0 to $15 so a call doesn't have to build them */
+   private static final String[] argNames = new String[16];
+
+   static
+   {
+      for (int x = 0; x < argNames.length; x++)
+      {
+         argNames[x] = ("$" + x).intern();
+      }
+   }
+
    /** initializes local scope based on argument stack */
    public static int initLocalScope(ScriptVariables vars, Variable localLevel, Stack locals)
    {
@@ -350,7 +361,7 @@ public class BridgeUtilities
          else
          {
             args.getArray().push(lvar);
-            vars.setScalarLevel("$"+name, lvar, localLevel);
+            vars.setScalarLevel(name < argNames.length ? argNames[name] : "$" + name, lvar, localLevel);
             name++;
          }
       }
@@ -66,9 +66,13 @@ public class SleepClosure implements Function, Runnable
     /** the saved context of this closure */
     Stack             context;
 
-    /** the meta data for this closure context */
+    /** the meta data for this closure (the continuation of a callcc is passed through here) */
     HashMap          metadata; 
 
+    /** the context meta data (iterators, regex matchers, etc.) of each saved context, kept alongside context.  a normal call
+        gets a fresh map so threads calling this closure at the same time don't share one */
+    transient Stack  savedMetadata;
+
     /** the closure variables referenced by this closure */
     Variable         variables;
 
@@ -87,13 +91,18 @@ public class SleepClosure implements Function, Runnable
     }
 
     /** saves the top level context; may throw an exception if an error is detected... be sure to move critical cleanup prior to this function. */
-    private void saveToplevelContext(Stack _context, LinkedList localLevel)
+    private void saveToplevelContext(Stack _context, LinkedList localLevel, HashMap _metadata)
     {
        if (!_context.isEmpty())
        {
           _context.push(localLevel); /* push the local vars on to the top of the context stack,
                                         this better be popped before use!!! */
           context.push(_context);
+
+          if (savedMetadata == null)
+             savedMetadata = new Stack();
+
+          savedMetadata.push(_metadata);
        }
        else if (localLevel.size() != 1)
        {
@@ -111,6 +120,17 @@ public class SleepClosure implements Function, Runnable
        return (Stack)context.pop();
     }
 
+    /** returns the context meta data saved with the context just taken by getToplevelContext (null for a normal call or a
+        context saved before this closure was serialized, the environment makes a map when something is stored) */
+    private HashMap getToplevelMetadata(Stack _context)
+    {
+       if (_context.isEmpty() || savedMetadata == null || savedMetadata.size() <= context.size())
+       {
+          return null;
+       }
+       return (HashMap)savedMetadata.pop();
+    }
+
     /** Returns a generic string version of this closure without id information */
     public String toStringGeneric()
     {
@@ -202,8 +222,15 @@ public class SleepClosure implements Function, Runnable
        si.getScriptEnvironment().CreateFrame();
        si.getScriptEnvironment().CreateFrame(locals); /* dump the local vars here plz */
 
-       CallRequest request = new CallRequest.ClosureCallRequest(si.getScriptEnvironment(), -1, SleepUtils.getScalar(this), message);
-       request.CallFunction();
+       if (si.isTraceCalls())
+       {
+          CallRequest request = new CallRequest.ClosureCallRequest(si.getScriptEnvironment(), -1, SleepUtils.getScalar(this), message);
+          request.CallFunction();
+       }
+       else
+       {
+          CallRequest.CallClosure(si.getScriptEnvironment(), -1, SleepUtils.getScalar(this), message);
+       }
 
        /* get the return value */    
        Scalar rv = si.getScriptEnvironment().getCurrentFrame().isEmpty() ? SleepUtils.getEmptyScalar() : (Scalar)si.getScriptEnvironment().getCurrentFrame().pop();
@@ -230,15 +257,16 @@ public class SleepClosure implements Function, Runnable
 
        synchronized (vars)
        {
-          Stack toplevel = getToplevelContext();
-          env.loadContext(toplevel, metadata);
+          Stack   toplevel     = getToplevelContext();
+          HashMap callMetadata = getToplevelMetadata(toplevel);
+          env.loadContext(toplevel, callMetadata);
 
           vars.pushClosureLevel(getVariables()); 
 
           if (toplevel.isEmpty()) /* a normal closure call */
           {
-             vars.beginToplevel(new LinkedList());
-             vars.pushLocalLevel();
+             vars.beginToplevel();
+             vars.pushLocalLevel(code.getLocalSlots());
           }
           else /* restoring from a coroutine */
           {
@@ -280,7 +308,15 @@ public class SleepClosure implements Function, Runnable
              si.getScriptEnvironment().flagReturn(si.getScriptEnvironment().getReturnValue(), ScriptEnvironment.FLOW_CONTROL_PASS); 
           }
 
-          saveToplevelContext(env.saveContext(), phear);  /* saves the top level context *pHEAR*; done last in case there is an error with this */
+          callMetadata = env.getContextMetadata();
+
+          Stack saved = env.saveContext();
+          saveToplevelContext(saved, phear, callMetadata);  /* saves the top level context *pHEAR*; done last in case there is an error with this */
+
+          if (saved.isEmpty())
+          {
+             vars.recycle(phear);            /* nothing kept this call's local scopes, the next call can have them */
+          }
        }
 
        return temp;
@@ -0,0 +1,235 @@
+/* 
+ * Copyright (C) 2002-2012 Raphael Mudge (rsmudge@gmail.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package sleep.bridges;
+
+import sleep.runtime.Scalar;
+import sleep.interfaces.Variable;
+import sleep.engine.LocalSlots;
+
+import java.util.Arrays;
+
+/** A local variable container for one call of a closure.  Variables with a slot in the closure's {@linkplain sleep.engine.LocalSlots
+ *  layout} are kept in an array, anything else (named arguments, dynamic names passed to &amp;local, etc.) goes into a small open
+ *  addressing table.  This container belongs to a single call and is only accessed while the script variables are locked, so it
+ *  is not synchronized.  When nothing captured the call's local scope ScriptVariables empties the container and uses it again
+ *  for a later call (see {@link #reset(LocalSlots)}). */
+public class SlotVariable implements Variable
+{
+    private static final LocalSlots NO_SLOTS = new LocalSlots(new String[0]);
+
+    protected LocalSlots layout;
+    protected Scalar[]   slots  = null;
+
+    /* variables without a slot, kept in an open addressing table (linear probing, at most half full) */
+    protected String[]   names  = null;
+    protected Scalar[]   values = null;
+    protected int        count  = 0;
+
+    public SlotVariable(LocalSlots _layout)
+    {
+        reset(_layout);
+    }
+
+    /** creates a local variable container with no slots */
+    public SlotVariable()
+    {
+        this(null);
+    }
+
+    /** empties this container and gives it the specified layout (null for no slots) */
+    public void reset(LocalSlots _layout)
+    {
+        if (slots != null)
+           Arrays.fill(slots, 0, layout.size(), null);
+
+        layout = _layout == null ? NO_SLOTS : _layout;
+
+        if (slots == null || slots.length < layout.size())
+           slots = new Scalar[layout.size()];
+
+        if (count > 0)
+        {
+           Arrays.fill(names, null);
+           Arrays.fill(values, null);
+           count = 0;
+        }
+    }
+
+    /** returns the value held in the specified slot if this container uses the specified layout.  returns null if the layout 
+        does not match or if nothing is in the slot */
+    public Scalar getSlot(LocalSlots _layout, int slot)
+    {
+        return _layout == layout ? slots[slot] : null;
+    }
+
+    /** returns true if this container uses the specified layout */
+    public boolean hasLayout(LocalSlots _layout)
+    {
+        return _layout == layout;
+    }
+
+    /** puts a value into the specified slot.  only call this after checking the layout with hasLayout */
+    public void putSlot(int slot, Scalar value)
+    {
+        slots[slot] = value;
+    }
+
+    private int home(String key)
+    {
+        int h = key.hashCode();
+        return (h ^ (h >>> 16)) & (names.length - 1);
+    }
+
+    /** returns the index of the specified name in the table or -1 */
+    private int find(String key)
+    {
+        if (count == 0)
+           return -1;
+
+        int mask = names.length - 1;
+        for (int x = home(key); names[x] != null; x = (x + 1) & mask)
+        {
+           if (names[x].equals(key))
+              return x;
+        }
+        return -1;
+    }
+
+    private void insert(String key, Scalar value)
+    {
+        if (names == null)
+        {
+           names  = new String[8];
+           values = new Scalar[8];
+        }
+        else if ((count + 1) * 2 > names.length)
+        {
+           String[] oldn = names;
+           Scalar[] oldv = values;
+
+           names  = new String[oldn.length * 2];
+           values = new Scalar[oldn.length * 2];
+           count  = 0;
+
+           for (int x = 0; x < oldn.length; x++)
+           {
+              if (oldn[x] != null)
+                 insert(oldn[x], oldv[x]);
+           }
+        }
+
+        int mask = names.length - 1;
+        int x    = home(key);
+        while (names[x] != null)
+           x = (x + 1) & mask;
+
+        names[x]  = key;
+        values[x] = value;
+        count++;
+    }
+
+    /** takes the name at the specified index out of the table and moves the names after it back so lookups still find them */
+    private void delete(int x)
+    {
+        int mask = names.length - 1;
+
+        names[x]  = null;
+        values[x] = null;
+        count--;
+
+        for (int y = (x + 1) & mask; names[y] != null; y = (y + 1) & mask)
+        {
+           int h = home(names[y]);
+
+           /* leave the name where it is if its home is cyclically in (x, y] */
+           if (x <= y ? (x < h && h <= y) : (x < h || h <= y))
+              continue;
+
+           names[x]  = names[y];
+           values[x] = values[y];
+           names[y]  = null;
+           values[y] = null;
+           x = y;
+        }
+    }
+
+    public boolean scalarExists(String key)
+    {
+        int slot = layout.indexOf(key);
+        if (slot != -1)
+           return slots[slot] != null;
+
+        return find(key) != -1;
+    }
+
+    public Scalar getScalar(String key)
+    {
+        int slot = layout.indexOf(key);
+        if (slot != -1)
+           return slots[slot];
+
+        int x = find(key);
+        return x != -1 ? values[x] : null;
+    }
+
+    public Scalar putScalar(String key, Scalar value)
+    {
+        int slot = layout.indexOf(key);
+        if (slot != -1)
+        {
+           Scalar old  = slots[slot];
+           slots[slot] = value;
+           return old;
+        }
+
+        int x = find(key);
+        if (x != -1)
+        {
+           Scalar old = values[x];
+           values[x]  = value;
+           return old;
+        }
+
+        insert(key, value);
+        return null;
+    }
+
+    public void removeScalar(String key)
+    {
+        int slot = layout.indexOf(key);
+        if (slot != -1)
+        {
+           slots[slot] = null;
+           return;
+        }
+
+        int x = find(key);
+        if (x != -1)
+           delete(x);
+    }
+
+    public Variable createLocalVariableContainer()
+    {
+        return new DefaultVariable();
+    }
+
+    public Variable createInternalVariableContainer()
+    {
+        return new DefaultVariable();
+    }
+}
@@ -18,6 +18,7 @@
 package sleep.bridges.io;
 
 import java.io.*;
+import java.util.concurrent.*;
 import sleep.runtime.*;
 
 /** <p>The IOObject is the parent class for all IO Source objects that are compatible with Sleep's
@@ -55,6 +56,7 @@ public class IOObject
    /* other fun stuff <3 */  
 
    protected Thread           thread  = null;
+   protected Future           task    = null;
    protected Scalar           token   = null;
 
    /** return the actual source of this IO for scripters to query using HOES */
@@ -90,9 +92,45 @@ public class IOObject
       return thread;
    }
 
+   /** set the task running for this IOObject when it runs on an executor rather than its own thread (see &amp;fork) */
+   public void setTask(Future f)
+   {
+      task = f;
+   }
+
+   /** returns the task associated with this IOObject */
+   public Future getTask()
+   {
+      return task;
+   }
+
    public Scalar wait(ScriptEnvironment env, long timeout)
    {
-      if (getThread() != null && getThread().isAlive())
+      if (getTask() != null && !getTask().isDone())
+      {
+         try
+         {
+            if (timeout > 0)
+            {
+               getTask().get(timeout, TimeUnit.MILLISECONDS);
+            }
+            else
+            {
+               getTask().get();
+            }
+         }
+         catch (TimeoutException ex)
+         {
+            env.flagError(new IOException("wait on object timed out"));
+            return SleepUtils.getEmptyScalar();
+         }
+         catch (Exception ex)
+         {
+            env.flagError(ex);
+            return SleepUtils.getEmptyScalar();
+         }
+      }
+      else if (getThread() != null && getThread().isAlive())
       {
          try
          {
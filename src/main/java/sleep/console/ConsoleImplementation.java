@@ -78,7 +78,7 @@ public class ConsoleImplementation implements RuntimeWarningWatcher, Loadable, C
        applications environment.  Any scripts loaded via this console will have only the default bridges.  */
    public ConsoleImplementation()
    {
-      this(new Hashtable(), new DefaultVariable(), new ScriptLoader());
+      this(new EnvironmentTable(), new DefaultVariable(), new ScriptLoader());
    }
 
    /** Creates an implementation of the sleep console that shares what your application is already using.  Any of the 
@@ -96,7 +96,7 @@ public class ConsoleImplementation implements RuntimeWarningWatcher, Loadable, C
    public ConsoleImplementation(Hashtable _sharedEnvironment, Variable _sharedVariables, ScriptLoader _loader)
    {
       if (_sharedEnvironment == null)
-         _sharedEnvironment = new Hashtable();
+         _sharedEnvironment = new EnvironmentTable();
 
       if (_sharedVariables == null)
          _sharedVariables = new DefaultVariable();
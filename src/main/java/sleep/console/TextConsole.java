@@ -124,11 +124,11 @@ public class TextConsole implements ConsoleProxy
 
             if (eval)
             {
-                script = loader.loadScript(args[start - 1], args[start], new Hashtable());
+                script = loader.loadScript(args[start - 1], args[start], new EnvironmentTable());
             }
             else if (expr)
             {
-                script = loader.loadScript(args[start - 1], "println(" + args[start] + ");", new Hashtable());
+                script = loader.loadScript(args[start - 1], "println(" + args[start] + ");", new EnvironmentTable());
             }
             else if (args[start].equals("-"))
             {
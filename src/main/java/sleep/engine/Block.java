@@ -165,6 +165,27 @@ public class Block implements Serializable
        last = n;
     }
 
+    /** makes sure the steps of this block are in place.  a block compiled on first use (see sleep.parser.LazyBlock) compiles
+        itself here, an ordinary block has nothing to do */
+    public void resolve()
+    {
+    }
+
+    /** the layout of the local variables of this block, set by the code generator for closure bodies */
+    protected LocalSlots locals = null;
+
+    /** returns the layout of the local variables of this block (null if this block isn't the body of a closure) */
+    public LocalSlots getLocalSlots()
+    {
+        return locals;
+    }
+
+    /** sets the layout of the local variables of this block */
+    public void setLocalSlots(LocalSlots _locals)
+    {
+        locals = _locals;
+    }
+
     /** evaluates this block of code.  please note that if the block has a return statement and the method clearReturn() is not 
         called on the corresponding script environment chaos will ensue.  use SleepUtils.runCode() to safely execute a block of
         code.  don't call this method yourself.  okay? */
@@ -221,6 +242,9 @@ public class Block implements Serializable
         {
            try
            {
+              if (Sampler.isEnabled())
+                 environment.markLine(source, temp.getLineNumber());
+
               temp.evaluate(environment);
            }
            catch (Exception ex)
@@ -258,7 +282,12 @@ public class Block implements Serializable
                  {
                     environment.getScriptInstance().fireWarning("detected unsafe data modification", temp.getLineNumber());
                  }
-              }    
+              }
+              else if (ex instanceof ArithmeticException && ex.getMessage() == null)
+              {
+                 /* an int divide by zero that has happened often enough gets a preallocated exception from the JIT, minus its message */
+                 environment.getScriptInstance().fireWarning("/ by zero", temp.getLineNumber());
+              }
               else if (ex instanceof RuntimeException)
               {
                  if (ex.getMessage() == null)
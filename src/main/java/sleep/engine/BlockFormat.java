@@ -0,0 +1,794 @@
+/* 
+ * Copyright (C) 2002-2012 Raphael Mudge (rsmudge@gmail.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package sleep.engine;
+
+import java.io.*;
+import java.lang.reflect.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import sleep.runtime.*;
+
+/** A compact binary format for compiled scripts, used by ScriptLoader.saveSerialized and loadSerialized in place of Java
+ *  serialization.  The format is:
+ *
+ *  <pre>
+ *  magic (SLBC), version
+ *  string pool:  count, then each string as UTF-8
+ *  class pool:   count, then for each class its name and the names of its fields (as indexes into the string pool)
+ *  body:         the Block, each value is a tag byte followed by its data
+ *  </pre>
+ *
+ *  <p>Each step is written as its class (an index into the class pool) followed by its fields, in the order of the class pool
+ *  entry.  Strings and class names appear once no matter how many steps use them.  An object seen before is written as a
+ *  reference to it.  The steps of a block are written as a list (not as a chain of next fields) so long scripts don't recurse.</p>
+ *
+ *  <p>A class whose fields changed since the file was written, or a file written by another version of the format, can't be
+ *  read.  read throws an IOException and the caller should compile the script again.  Objects with custom serialization
+ *  (other than Scalar) and objects from the Java class library are stored with Java serialization inside the file.</p>
+ */
+public class BlockFormat
+{
+   /** the first four bytes of a compiled script: SLBC */
+   public static final int MAGIC   = 0x534C4243;
+
+   /** the version of this format.  change this if the encoding (not the steps) changes */
+   public static final int VERSION = 1;
+
+   private static final int TAG_NULL    = 0;
+   private static final int TAG_REF     = 1;
+   private static final int TAG_STRING  = 2;
+   private static final int TAG_INT     = 3;
+   private static final int TAG_LONG    = 4;
+   private static final int TAG_DOUBLE  = 5;
+   private static final int TAG_TRUE    = 6;
+   private static final int TAG_FALSE   = 7;
+   private static final int TAG_CHAR    = 8;
+   private static final int TAG_OBJECT  = 9;
+   private static final int TAG_ARRAY   = 10;
+   private static final int TAG_LIST    = 11;
+   private static final int TAG_MAP     = 12;
+   private static final int TAG_CLASS   = 13;
+   private static final int TAG_BLOCK   = 14;
+   private static final int TAG_SCALAR  = 15;
+   private static final int TAG_SLOTS   = 16;
+   private static final int TAG_JAVA    = 17;
+
+   /** the fields written for each class */
+   private static final Map fields = Collections.synchronizedMap(new HashMap());
+
+   /** classes that take care of their own serialization */
+   private static final Map custom = Collections.synchronizedMap(new HashMap());
+
+   private static final Map primitives = new HashMap();
+
+   static
+   {
+      Class[] temp = new Class[] { Integer.TYPE, Long.TYPE, Double.TYPE, Float.TYPE, Short.TYPE, Byte.TYPE, Character.TYPE, Boolean.TYPE };
+      for (int x = 0; x < temp.length; x++)
+      {
+         primitives.put(temp[x].getName(), temp[x]);
+      }
+   }
+
+   /** returns the non-static, non-transient fields of a class and its superclasses (superclass fields first, each class
+       sorted by name).  Step.next isn't here, blocks write their steps as a list */
+   private static Field[] getFields(Class type)
+   {
+      Field[] result = (Field[])fields.get(type);
+      if (result != null)
+         return result;
+
+      LinkedList all = new LinkedList();
+
+      for (Class temp = type; temp != null && temp != Object.class; temp = temp.getSuperclass())
+      {
+         Field[] declared = temp.getDeclaredFields();
+         Arrays.sort(declared, new Comparator()
+         {
+            public int compare(Object a, Object b)
+            {
+               return ((Field)a).getName().compareTo(((Field)b).getName());
+            }
+         });
+
+         for (int x = declared.length - 1; x >= 0; x--)
+         {
+            int mods = declared[x].getModifiers();
+            if (Modifier.isStatic(mods) || Modifier.isTransient(mods))
+               continue;
+
+            if (temp == Step.class && declared[x].getName().equals("next"))
+               continue;
+
+            declared[x].setAccessible(true);
+            all.addFirst(declared[x]);
+         }
+      }
+
+      result = (Field[])all.toArray(new Field[all.size()]);
+      fields.put(type, result);
+      return result;
+   }
+
+   /** returns true if the class (or a superclass) has writeObject, readObject, writeReplace, or readResolve */
+   private static boolean isCustom(Class type)
+   {
+      Boolean result = (Boolean)custom.get(type);
+      if (result != null)
+         return result.booleanValue();
+
+      boolean value = false;
+      String[] names = new String[] { "writeObject", "readObject", "writeReplace", "readResolve" };
+
+      for (Class temp = type; temp != null && temp != Object.class && !value; temp = temp.getSuperclass())
+      {
+         Method[] methods = temp.getDeclaredMethods();
+         for (int x = 0; x < methods.length && !value; x++)
+         {
+            for (int y = 0; y < names.length; y++)
+            {
+               if (methods[x].getName().equals(names[y]) && !Modifier.isStatic(methods[x].getModifiers()))
+                  value = true;
+            }
+         }
+      }
+
+      custom.put(type, value ? Boolean.TRUE : Boolean.FALSE);
+      return value;
+   }
+
+   /** returns true if the buffer (from its position) holds a block in this format */
+   public static boolean isBlockFormat(ByteBuffer buffer)
+   {
+      return buffer.remaining() >= 4 && buffer.getInt(buffer.position()) == MAGIC;
+   }
+
+   /** writes a compiled script to the stream */
+   public static void write(Block block, OutputStream out) throws IOException
+   {
+      Writer writer = new Writer();
+      writer.writeValue(block);
+      writer.finish(out);
+   }
+
+   /** reads a compiled script from the buffer (from its position).  throws an IOException if the data isn't in this format, is
+       from another version of the format, or doesn't match the classes it uses */
+   public static Block read(ByteBuffer buffer) throws IOException
+   {
+      try
+      {
+         Object temp = new Reader(buffer).readValue();
+         if (!(temp instanceof Block))
+            throw new IOException("compiled script doesn't hold a block");
+
+         return (Block)temp;
+      }
+      catch (RuntimeException ex)
+      {
+         IOException ioex = new IOException("bad compiled script: " + ex);
+         ioex.initCause(ex);
+         throw ioex;
+      }
+   }
+
+   private static class Writer
+   {
+      protected ByteArrayOutputStream bytes   = new ByteArrayOutputStream(4096);
+      protected DataOutputStream      body    = new DataOutputStream(bytes);
+
+      protected Map                   strings = new HashMap();
+      protected List                  pool    = new ArrayList();
+      protected Map                   classes = new HashMap();
+      protected List                  types   = new ArrayList();
+      protected Set                   objects = new HashSet();
+      protected Map                   seen    = new IdentityHashMap();
+
+      /** writes the header, the pools, and the body */
+      public void finish(OutputStream out) throws IOException
+      {
+         /* the class pool adds its field names to the string pool, so build it first */
+         ByteArrayOutputStream classPool = new ByteArrayOutputStream();
+         DataOutputStream      cout      = new DataOutputStream(classPool);
+
+         writeVarint(cout, types.size());
+         for (int x = 0; x < types.size(); x++)
+         {
+            Class   type = (Class)types.get(x);
+            Field[] list = objects.contains(type) ? getFields(type) : new Field[0];
+
+            writeVarint(cout, string(type.getName()));
+            writeVarint(cout, list.length);
+            for (int y = 0; y < list.length; y++)
+            {
+               writeVarint(cout, string(list[y].getName()));
+            }
+         }
+
+         DataOutputStream dout = new DataOutputStream(new BufferedOutputStream(out));
+         dout.writeInt(MAGIC);
+         dout.writeShort(VERSION);
+
+         writeVarint(dout, pool.size());
+         for (int x = 0; x < pool.size(); x++)
+         {
+            byte[] temp = ((String)pool.get(x)).getBytes("UTF-8");
+            writeVarint(dout, temp.length);
+            dout.write(temp);
+         }
+
+         classPool.writeTo(dout);
+         bytes.writeTo(dout);
+         dout.flush();
+      }
+
+      private int string(String value)
+      {
+         Integer index = (Integer)strings.get(value);
+         if (index == null)
+         {
+            index = new Integer(pool.size());
+            strings.put(value, index);
+            pool.add(value);
+         }
+         return index.intValue();
+      }
+
+      private int type(Class value)
+      {
+         Integer index = (Integer)classes.get(value);
+         if (index == null)
+         {
+            index = new Integer(types.size());
+            classes.put(value, index);
+            types.add(value);
+         }
+         return index.intValue();
+      }
+
+      /** returns true (after writing a reference) if this object was written already, otherwise gives it the next id */
+      private boolean reference(Object value) throws IOException
+      {
+         Integer id = (Integer)seen.get(value);
+         if (id != null)
+         {
+            body.writeByte(TAG_REF);
+            writeVarint(body, id.intValue());
+            return true;
+         }
+
+         seen.put(value, new Integer(seen.size()));
+         return false;
+      }
+
+      public void writeValue(Object value) throws IOException
+      {
+         if (value == null)
+         {
+            body.writeByte(TAG_NULL);
+            return;
+         }
+
+         Class type = value.getClass();
+
+         if (type == String.class)
+         {
+            body.writeByte(TAG_STRING);
+            writeVarint(body, string((String)value));
+         }
+         else if (type == Integer.class)
+         {
+            body.writeByte(TAG_INT);
+            writeVarlong(body, zigzag(((Integer)value).intValue()));
+         }
+         else if (type == Long.class)
+         {
+            body.writeByte(TAG_LONG);
+            writeVarlong(body, zigzag(((Long)value).longValue()));
+         }
+         else if (type == Double.class)
+         {
+            body.writeByte(TAG_DOUBLE);
+            body.writeDouble(((Double)value).doubleValue());
+         }
+         else if (type == Boolean.class)
+         {
+            body.writeByte(((Boolean)value).booleanValue() ? TAG_TRUE : TAG_FALSE);
+         }
+         else if (type == Character.class)
+         {
+            body.writeByte(TAG_CHAR);
+            writeVarint(body, ((Character)value).charValue());
+         }
+         else if (type == Class.class)
+         {
+            body.writeByte(TAG_CLASS);
+            writeVarint(body, string(((Class)value).getName()));
+         }
+         else if (reference(value))
+         {
+            /* written already */
+         }
+         else if (value instanceof Block)
+         {
+            Block block = (Block)value;
+            block.resolve();
+
+            body.writeByte(TAG_BLOCK);
+            writeValue(block.source);
+            writeValue(block.locals);
+
+            int count = 0;
+            for (Step temp = block.first; temp != null; temp = temp.next)
+            {
+               count++;
+            }
+
+            writeVarint(body, count);
+            for (Step temp = block.first; temp != null; temp = temp.next)
+            {
+               writeValue(temp);
+            }
+         }
+         else if (type == LocalSlots.class)
+         {
+            body.writeByte(TAG_SLOTS);
+            writeValue(((LocalSlots)value).names);
+         }
+         else if (type == Scalar.class)
+         {
+            Scalar scalar = (Scalar)value;
+
+            body.writeByte(TAG_SCALAR);
+            writeValue(SleepUtils.isEmptyScalar(scalar) ? null : scalar.getActualValue());
+            writeValue(scalar.getArray());
+            writeValue(scalar.getHash());
+         }
+         else if (type.isArray())
+         {
+            int length = Array.getLength(value);
+
+            body.writeByte(TAG_ARRAY);
+            writeVarint(body, type(type.getComponentType()));
+            writeVarint(body, length);
+
+            for (int x = 0; x < length; x++)
+            {
+               writeValue(Array.get(value, x));
+            }
+         }
+         else if (type == ArrayList.class || type == LinkedList.class)
+         {
+            List list = (List)value;
+
+            body.writeByte(TAG_LIST);
+            writeVarint(body, type(type));
+            writeVarint(body, list.size());
+
+            Iterator i = list.iterator();
+            while (i.hasNext())
+            {
+               writeValue(i.next());
+            }
+         }
+         else if (type == HashMap.class || type == LinkedHashMap.class || type == Hashtable.class)
+         {
+            Map map = (Map)value;
+
+            body.writeByte(TAG_MAP);
+            writeVarint(body, type(type));
+            writeVarint(body, map.size());
+
+            Iterator i = map.entrySet().iterator();
+            while (i.hasNext())
+            {
+               Map.Entry entry = (Map.Entry)i.next();
+               writeValue(entry.getKey());
+               writeValue(entry.getValue());
+            }
+         }
+         else if (value instanceof Serializable && type.getClassLoader() != null && !isCustom(type))
+         {
+            Field[] list = getFields(type);
+
+            body.writeByte(TAG_OBJECT);
+            writeVarint(body, type(type));
+            objects.add(type);
+
+            for (int x = 0; x < list.length; x++)
+            {
+               try
+               {
+                  writeValue(list[x].get(value));
+               }
+               catch (IllegalAccessException ex)
+               {
+                  throw new NotSerializableException(type.getName() + "." + list[x].getName());
+               }
+            }
+         }
+         else
+         {
+            /* Java serialization does the job for everything else (or throws NotSerializableException) */
+            ByteArrayOutputStream temp = new ByteArrayOutputStream();
+            ObjectOutputStream    out  = new ObjectOutputStream(temp);
+            out.writeObject(value);
+            out.close();
+
+            body.writeByte(TAG_JAVA);
+            writeVarint(body, temp.size());
+            temp.writeTo(body);
+         }
+      }
+   }
+
+   private static class Reader
+   {
+      protected ByteBuffer buffer;
+      protected String[]   pool;
+      protected String[]   typeNames;
+      protected String[][] fieldNames;
+      protected Class[]    types;
+      protected Field[][]  typeFields;
+      protected ArrayList  seen = new ArrayList();
+
+      public Reader(ByteBuffer _buffer) throws IOException
+      {
+         buffer = _buffer;
+
+         if (buffer.remaining() < 6 || buffer.getInt() != MAGIC)
+            throw new IOException("not a compiled script");
+
+         int version = buffer.getShort();
+         if (version != VERSION)
+            throw new IOException("compiled script format version " + version + " (expected " + VERSION + ")");
+
+         pool = new String[readVarint()];
+         byte[] scratch = new byte[256];
+
+         for (int x = 0; x < pool.length; x++)
+         {
+            int length = readVarint();
+
+            if (buffer.hasArray())
+            {
+               pool[x] = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, "UTF-8");
+               buffer.position(buffer.position() + length);
+            }
+            else
+            {
+               if (scratch.length < length)
+                  scratch = new byte[length];
+
+               buffer.get(scratch, 0, length);
+               pool[x] = new String(scratch, 0, length, "UTF-8");
+            }
+         }
+
+         int count  = readVarint();
+         typeNames  = new String[count];
+         fieldNames = new String[count][];
+         types      = new Class[count];
+         typeFields = new Field[count][];
+
+         for (int x = 0; x < count; x++)
+         {
+            typeNames[x]  = pool[readVarint()];
+            fieldNames[x] = new String[readVarint()];
+            for (int y = 0; y < fieldNames[x].length; y++)
+            {
+               fieldNames[x][y] = pool[readVarint()];
+            }
+         }
+      }
+
+      private int readVarint()
+      {
+         return (int)readVarlong();
+      }
+
+      private long readVarlong()
+      {
+         long result = 0;
+         int  shift  = 0;
+         byte next;
+
+         do
+         {
+            next    = buffer.get();
+            result |= (long)(next & 0x7F) << shift;
+            shift  += 7;
+         }
+         while ((next & 0x80) != 0);
+
+         return result;
+      }
+
+      private Class load(String name) throws IOException
+      {
+         Class temp = (Class)primitives.get(name);
+         if (temp != null)
+            return temp;
+
+         try
+         {
+            return Class.forName(name, false, BlockFormat.class.getClassLoader());
+         }
+         catch (ClassNotFoundException ex)
+         {
+            try
+            {
+               return Class.forName(name, false, Thread.currentThread().getContextClassLoader());
+            }
+            catch (ClassNotFoundException ex2)
+            {
+               throw new IOException("compiled script uses unknown class " + name);
+            }
+         }
+      }
+
+      private Class type(int index) throws IOException
+      {
+         if (types[index] == null)
+            types[index] = load(typeNames[index]);
+
+         return types[index];
+      }
+
+      /** returns the fields of a class in the order they were written, after checking they are the fields the class has now */
+      private Field[] fields(int index) throws IOException
+      {
+         if (typeFields[index] == null)
+         {
+            Field[] local = getFields(type(index));
+
+            boolean same = local.length == fieldNames[index].length;
+            for (int x = 0; same && x < local.length; x++)
+            {
+               same = local[x].getName().equals(fieldNames[index][x]);
+            }
+
+            if (!same)
+               throw new IOException("class " + typeNames[index] + " changed since the script was compiled");
+
+            typeFields[index] = local;
+         }
+
+         return typeFields[index];
+      }
+
+      private int reserve()
+      {
+         seen.add(null);
+         return seen.size() - 1;
+      }
+
+      public Object readValue() throws IOException
+      {
+         int tag = buffer.get();
+
+         switch (tag)
+         {
+            case TAG_NULL:
+               return null;
+            case TAG_REF:
+               return seen.get(readVarint());
+            case TAG_STRING:
+               return pool[readVarint()];
+            case TAG_INT:
+               return new Integer((int)unzigzag(readVarlong()));
+            case TAG_LONG:
+               return new Long(unzigzag(readVarlong()));
+            case TAG_DOUBLE:
+               return new Double(buffer.getDouble());
+            case TAG_TRUE:
+               return Boolean.TRUE;
+            case TAG_FALSE:
+               return Boolean.FALSE;
+            case TAG_CHAR:
+               return new Character((char)readVarint());
+            case TAG_CLASS:
+               return load(pool[readVarint()]);
+            case TAG_BLOCK:
+            {
+               int   id    = reserve();
+               Block block = new Block((String)readValue());
+               seen.set(id, block);
+
+               block.locals = (LocalSlots)readValue();
+
+               int count = readVarint();
+               for (int x = 0; x < count; x++)
+               {
+                  block.add((Step)readValue());
+               }
+
+               return block;
+            }
+            case TAG_SLOTS:
+            {
+               int        id    = reserve();
+               LocalSlots slots = new LocalSlots((String[])readValue());
+               seen.set(id, slots);
+               return slots;
+            }
+            case TAG_SCALAR:
+            {
+               Scalar scalar = new Scalar();
+               seen.add(scalar);
+
+               ScalarType  value = (ScalarType)readValue();
+               ScalarArray array = (ScalarArray)readValue();
+               ScalarHash  hash  = (ScalarHash)readValue();
+
+               if (array != null)
+                  scalar.setValue(array);
+               else if (hash != null)
+                  scalar.setValue(hash);
+               else if (value != null)
+                  scalar.setValue(value);
+               else
+                  scalar.setValue(SleepUtils.getEmptyScalar());
+
+               return scalar;
+            }
+            case TAG_ARRAY:
+            {
+               Class  component = type(readVarint());
+               Object array     = Array.newInstance(component, readVarint());
+               seen.add(array);
+
+               for (int x = 0; x < Array.getLength(array); x++)
+               {
+                  Array.set(array, x, readValue());
+               }
+
+               return array;
+            }
+            case TAG_LIST:
+            {
+               List list = (List)instance(type(readVarint()));
+               seen.add(list);
+
+               int count = readVarint();
+               for (int x = 0; x < count; x++)
+               {
+                  list.add(readValue());
+               }
+
+               return list;
+            }
+            case TAG_MAP:
+            {
+               Map map = (Map)instance(type(readVarint()));
+               seen.add(map);
+
+               int count = readVarint();
+               for (int x = 0; x < count; x++)
+               {
+                  Object key = readValue();
+                  map.put(key, readValue());
+               }
+
+               return map;
+            }
+            case TAG_OBJECT:
+            {
+               int     index  = readVarint();
+               Field[] list   = fields(index);
+               Object  object = instance(type(index));
+               seen.add(object);
+
+               for (int x = 0; x < list.length; x++)
+               {
+                  try
+                  {
+                     list[x].set(object, readValue());
+                  }
+                  catch (IllegalAccessException ex)
+                  {
+                     throw new IOException("can't set " + typeNames[index] + "." + list[x].getName());
+                  }
+               }
+
+               return object;
+            }
+            case TAG_JAVA:
+            {
+               byte[] temp = new byte[readVarint()];
+               buffer.get(temp);
+
+               try
+               {
+                  Object value = new ObjectInputStream(new ByteArrayInputStream(temp)).readObject();
+                  seen.add(value);
+                  return value;
+               }
+               catch (ClassNotFoundException ex)
+               {
+                  throw new IOException("compiled script uses unknown class " + ex.getMessage());
+               }
+            }
+            default:
+               throw new IOException("bad tag " + tag + " in compiled script");
+         }
+      }
+   }
+
+   /** cached constructors for instance(), a class maps to the constructor to use */
+   private static final Map constructors = Collections.synchronizedMap(new HashMap());
+
+   /** creates an instance of a class without calling its constructor (same as Java serialization does), unless it has a no
+       argument constructor */
+   private static Object instance(Class type) throws IOException
+   {
+      try
+      {
+         Constructor temp = (Constructor)constructors.get(type);
+
+         if (temp == null)
+         {
+            try
+            {
+               temp = type.getDeclaredConstructor(new Class[0]);
+            }
+            catch (NoSuchMethodException ex)
+            {
+               Class  factory  = Class.forName("sun.reflect.ReflectionFactory");
+               Object instance = factory.getMethod("getReflectionFactory", new Class[0]).invoke(null, new Object[0]);
+               temp = (Constructor)factory.getMethod("newConstructorForSerialization", new Class[] { Class.class, Constructor.class }).invoke(instance, new Object[] { type, Object.class.getDeclaredConstructor(new Class[0]) });
+            }
+
+            temp.setAccessible(true);
+            constructors.put(type, temp);
+         }
+
+         return temp.newInstance(new Object[0]);
+      }
+      catch (Exception ex)
+      {
+         throw new IOException("can't create " + type.getName() + ": " + ex);
+      }
+   }
+
+   private static long zigzag(long value)
+   {
+      return (value << 1) ^ (value >> 63);
+   }
+
+   private static long unzigzag(long value)
+   {
+      return (value >>> 1) ^ -(value & 1);
+   }
+
+   private static void writeVarint(DataOutputStream out, int value) throws IOException
+   {
+      writeVarlong(out, value & 0xFFFFFFFFL);
+   }
+
+   private static void writeVarlong(DataOutputStream out, long value) throws IOException
+   {
+      while ((value & ~0x7FL) != 0)
+      {
+         out.writeByte((int)((value & 0x7F) | 0x80));
+         value >>>= 7;
+      }
+
+      out.writeByte((int)value);
+   }
+}
@@ -0,0 +1,169 @@
+/* 
+ * Copyright (C) 2002-2012 Raphael Mudge (rsmudge@gmail.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package sleep.engine;
+
+import java.util.*;
+
+import sleep.engine.atoms.*;
+import sleep.engine.types.*;
+import sleep.runtime.*;
+
+/** A peephole optimizer for the steps of a block.  The code generator runs each block it finishes through this class, so nested 
+ *  blocks are optimized before the blocks that hold them.  The optimizations are:
+ *
+ *  <ul>
+ *  <li>constant folding: arithmetic (+ - * / %) on int, long, and double literals and concatenation (.) of literals is computed 
+ *      once and the create frame / push / push / operate sequence becomes a single push.  this assumes the stock operators from
+ *      BasicNumbers and BasicStrings.</li>
+ *  <li>dead code: steps after a return, break, or continue in the same block are dropped.</li>
+ *  </ul>
+ *
+ *  <p>The optimizer is on by default.  Turn it off with -Dsleep.optimize=false or setEnabled(false) before scripts are compiled.</p>
+ */
+public class BlockOptimizer
+{
+   protected static boolean enabled = !System.getProperty("sleep.optimize", "true").equals("false");
+
+   /** returns true if the code generator should optimize the blocks it generates */
+   public static boolean isEnabled()
+   {
+      return enabled;
+   }
+
+   /** turns the optimizer on or off, this affects scripts compiled after this call */
+   public static void setEnabled(boolean _enabled)
+   {
+      enabled = _enabled;
+   }
+
+   /** optimizes the steps of the specified block in place */
+   public static void optimize(Block block)
+   {
+      if (block.first == null)
+         return;
+
+      ArrayList steps = new ArrayList();
+      for (Step temp = block.first; temp != null; temp = temp.next)
+      {
+         steps.add(temp);
+      }
+
+      int size = steps.size();
+
+      removeDeadCode(steps);
+
+      while (foldConstants(steps)) { }
+
+      if (steps.size() == size)
+         return;
+
+      block.first = null;
+      block.last  = null;
+
+      Iterator i = steps.iterator();
+      while (i.hasNext())
+      {
+         Step temp = (Step)i.next();
+         temp.next = null;
+         block.add(temp);
+      }
+   }
+
+   /** drops the steps following an unconditional return, break, or continue */
+   private static void removeDeadCode(ArrayList steps)
+   {
+      for (int x = 0; x < steps.size() - 1; x++)
+      {
+         if (steps.get(x).getClass() == Return.class)
+         {
+            int type = ((Return)steps.get(x)).getReturnType();
+            if (type == ScriptEnvironment.FLOW_CONTROL_RETURN || type == ScriptEnvironment.FLOW_CONTROL_BREAK || type == ScriptEnvironment.FLOW_CONTROL_CONTINUE)
+            {
+               steps.subList(x + 1, steps.size()).clear();
+               return;
+            }
+         }
+      }
+   }
+
+   /** returns true if the value is a number or a string (and not $null, an array, a hash, or an object) */
+   private static boolean isConstant(Scalar value)
+   {
+      ScalarType type = value.getActualValue();
+
+      if (type == null)
+         return false;
+
+      Class c = type.getClass();
+      return c == IntValue.class || c == LongValue.class || c == DoubleValue.class || c == StringValue.class;
+   }
+
+   /** computes the specified operator on two constants.  returns null if this can't be done at compile time */
+   private static Scalar fold(String oper, Scalar left, Scalar right)
+   {
+      if (!isConstant(left) || !isConstant(right))
+         return null;
+
+      if (NumericOperate.isNumericOperator(oper))
+      {
+         try
+         {
+            return NumericOperate.operate(NumericOperate.getOpcode(oper), left.getActualValue(), right.getActualValue());
+         }
+         catch (ArithmeticException ex)
+         {
+            /* leave division by zero for runtime, it's a warning there */
+            return null;
+         }
+      }
+      else if (oper.equals("."))
+      {
+         return SleepUtils.getScalar(left.toString() + right.toString());
+      }
+
+      return null;
+   }
+
+   /** folds one create frame, push, push, operate sequence.  returns true if something was folded */
+   private static boolean foldConstants(ArrayList steps)
+   {
+      for (int x = 0; x + 3 < steps.size(); x++)
+      {
+         if (steps.get(x).getClass() == CreateFrame.class && steps.get(x + 1).getClass() == SValue.class && steps.get(x + 2).getClass() == SValue.class &&
+            (steps.get(x + 3).getClass() == Operate.class || steps.get(x + 3).getClass() == NumericOperate.class))
+         {
+            Operate oper = (Operate)steps.get(x + 3);
+
+            /* the left hand side is pushed last, see BasicNumbers.operate */
+            Scalar value = fold(oper.getOperator(), ((SValue)steps.get(x + 2)).getValue(), ((SValue)steps.get(x + 1)).getValue());
+
+            if (value != null)
+            {
+               Step temp = new SValue(value);
+               temp.setInfo(oper.getLineNumber());
+
+               steps.subList(x, x + 4).clear();
+               steps.add(x, temp);
+               return true;
+            }
+         }
+      }
+
+      return false;
+   }
+}
@@ -73,27 +73,125 @@ public abstract class CallRequest
    /** return true if debug trace is enabled.  override this to add/change criteria for trace activiation */
    public boolean isDebug()
    {
-      return (getScriptEnvironment().getScriptInstance().getDebugFlags() & ScriptInstance.DEBUG_TRACE_CALLS) == ScriptInstance.DEBUG_TRACE_CALLS;
+      return getScriptEnvironment().getScriptInstance().isTraceCalls();
+   }
+
+   /** calls a function the way an untraced FunctionCallRequest would, without allocating a call request.  Use this only when
+       the script instance is not tracing calls (see ScriptInstance.isTraceCalls()) */
+   public static void CallFunction(ScriptEnvironment e, int lineNumber, String function, Function callme)
+   {
+      int    mark = e.markFrame();
+      Scalar temp = null;
+
+      e.pushCall(function, lineNumber);
+
+      try
+      {
+         temp = callme.evaluate(function, e.getScriptInstance(), e.getCurrentFrame());
+         e.clearReturn();
+      }
+      catch (RuntimeException rex)
+      {
+         rethrow(e, mark, rex);
+      }
+      finally
+      {
+         e.popCall();
+      }
+
+      if (e.isThrownValue())
+      {
+         e.getScriptInstance().recordStackFrame(function + "()", lineNumber);
+      }
+
+      finish(e, mark, temp);
+   }
+
+   /** calls a closure the way an untraced ClosureCallRequest would, without allocating a call request.  Use this only when
+       the script instance is not tracing calls (see ScriptInstance.isTraceCalls()) */
+   public static void CallClosure(ScriptEnvironment e, int lineNumber, Scalar closure, String name)
+   {
+      int    mark = e.markFrame();
+      Scalar temp = null;
+
+      e.pushCall(closure, lineNumber);
+
+      try
+      {
+         Function func = SleepUtils.getFunctionFromScalar(closure, e.getScriptInstance());
+         temp = func.evaluate(name, e.getScriptInstance(), e.getCurrentFrame());
+         e.clearReturn();
+      }
+      catch (RuntimeException rex)
+      {
+         rethrow(e, mark, rex);
+      }
+      finally
+      {
+         e.popCall();
+      }
+
+      if (e.isThrownValue())
+      {
+         e.getScriptInstance().recordStackFrame(closure.toString(), lineNumber);
+      }
+
+      finish(e, mark, temp);
+   }
+
+   /** rethrows an exception from a function call after cleaning up the stack.  exceptions from a reflective invocation were
+       reported already and are swallowed */
+   private static void rethrow(ScriptEnvironment e, int mark, RuntimeException rex)
+   {
+      if (rex.getCause() == null || ! (  (java.lang.reflect.InvocationTargetException.class).isInstance(rex.getCause())  ))
+      {
+         e.cleanFrame(mark);
+         e.KillFrame();
+         throw(rex);
+      }
    }
 
    /** actually execute the function call */
    public void CallFunction()
    {
-      Scalar temp = null;
       ScriptEnvironment e = getScriptEnvironment();
-      int mark = getScriptEnvironment().markFrame();
+      e.pushCall(this, getLineNumber());
+
+      try
+      {
+         dispatch(e);
+      }
+      finally
+      {
+         e.popCall();
+      }
+   }
+
+   /** executes the function call with tracing and profiling as requested */
+   private void dispatch(ScriptEnvironment e)
+   {
+      Scalar temp = null;
+      int mark = e.markFrame();
 
       if (isDebug() && getLineNumber() != Integer.MIN_VALUE)
       {
+         Profiler profiler = e.getScriptInstance().getProfiler();
+         String   source   = e.getCurrentSource();
+
          if (e.getScriptInstance().isProfileOnly())
          {
              try
              {
-                long total = e.getScriptInstance().total();
-                long stat  = System.currentTimeMillis();
-                temp       = execute();
-                stat       = (System.currentTimeMillis() - stat) - (e.getScriptInstance().total() - total);
-                e.getScriptInstance().collect(getFunctionName(), getLineNumber(), stat);
+                profiler.enter(getFunctionName());
+
+                try
+                {
+                   temp = execute();
+                }
+                finally
+                {
+                   profiler.exit(source, getLineNumber());
+                }
              }
              catch (RuntimeException rex)
              {
@@ -113,11 +211,16 @@ public abstract class CallRequest
 
              try
              {
-                long total = e.getScriptInstance().total();
-                long stat = System.currentTimeMillis();
-                temp = execute();
-                stat       = (System.currentTimeMillis() - stat) - (e.getScriptInstance().total() - total);
-                e.getScriptInstance().collect(getFunctionName(), getLineNumber(), stat);
+                profiler.enter(getFunctionName());
+
+                try
+                {
+                   temp = execute();
+                }
+                finally
+                {
+                   profiler.exit(source, getLineNumber());
+                }
 
                 if (e.isThrownValue())
                 {
@@ -159,14 +262,8 @@ public abstract class CallRequest
          }
          catch (RuntimeException rex)
          {
-             if (rex.getCause() == null || ! (  (java.lang.reflect.InvocationTargetException.class).isInstance(rex.getCause())  ))
-             {
-                 /* swallow invocation target exceptions please */
-
-                e.cleanFrame(mark);
-                e.KillFrame();
-                throw(rex);
-             }
+             /* swallow invocation target exceptions please */
+             rethrow(e, mark, rex);
          }
       }
 
@@ -175,6 +272,13 @@ public abstract class CallRequest
          e.getScriptInstance().recordStackFrame(getFrameDescription(), getLineNumber());
       }
 
+      finish(e, mark, temp);
+   }
+
+   /** cleans up the stack after a function call and places the result on the parent frame.  this is also where a callcc'd 
+       function gets its turn */
+   private static void finish(ScriptEnvironment e, int mark, Scalar temp)
+   {
       if (temp == null)
         temp = SleepUtils.getEmptyScalar();
 
@@ -210,7 +314,7 @@ public abstract class CallRequest
          /** pass the continuation as the first argument to the callcc'd closure */
          e.getCurrentFrame().push(((SleepClosure)callme.objectValue()).getAndRemoveMetadata("continuation", null));
 
-         CallRequest.ClosureCallRequest request = new CallRequest.ClosureCallRequest(environment, lno, callme, "CALLCC");
+         CallRequest.ClosureCallRequest request = new CallRequest.ClosureCallRequest(e, lno, callme, "CALLCC");
          request.CallFunction();
 
          e.popSource();
@@ -41,7 +41,7 @@ public class GeneratedSteps
 
     public Step Operate(String oper)
     {
-       Step temp = new Operate(oper);
+       Step temp = NumericOperate.isNumericOperator(oper) ? new NumericOperate(oper) : new Operate(oper);
        return temp;
     }
 
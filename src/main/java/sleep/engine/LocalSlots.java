@@ -0,0 +1,68 @@
+/* 
+ * Copyright (C) 2002-2012 Raphael Mudge (rsmudge@gmail.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package sleep.engine;
+
+import java.util.*;
+import java.io.Serializable;
+
+/** The layout of the local variables of a closure body.  The code generator assigns a slot to each variable that is 
+ *  declared with a literal call to &amp;local or that is an argument variable ($0, $1..$n and @_).  At runtime these variables
+ *  live in an array indexed by slot (see {@linkplain sleep.bridges.SlotVariable SlotVariable}) rather than in a Hashtable.
+ *
+ *  @see sleep.bridges.SlotVariable
+ */
+public class LocalSlots implements Serializable
+{
+   protected String[] names;
+   protected HashMap  index;
+
+   public LocalSlots(String[] _names)
+   {
+      names = _names;
+      index = new HashMap();
+
+      for (int x = 0; x < names.length; x++)
+      {
+         index.put(names[x], new Integer(x));
+      }
+   }
+
+   /** returns the slot of the specified variable or -1 if the variable does not have a slot in this layout */
+   public int indexOf(String name)
+   {
+      Integer temp = (Integer)index.get(name);
+      return temp == null ? -1 : temp.intValue();
+   }
+
+   /** returns the name of the variable held in the specified slot */
+   public String getName(int slot)
+   {
+      return names[slot];
+   }
+
+   /** returns the number of slots in this layout */
+   public int size()
+   {
+      return names.length;
+   }
+
+   public String toString()
+   {
+      return "[Local Slots]: " + Arrays.asList(names);
+   }
+}
@@ -117,13 +117,22 @@ public class ProxyInterface implements InvocationHandler
                message.append("]");
             }
 
-            long stat = System.currentTimeMillis();
-            value = func.evaluate(method.getName(), script, temp); 
-            stat = System.currentTimeMillis() - stat;
-
             if (func.getClass() == SleepClosure.class)
             {
-               script.collect(((SleepClosure)func).toStringGeneric(), -1, stat);
+               script.getProfiler().enter(((SleepClosure)func).toStringGeneric());
+
+               try
+               {
+                  value = func.evaluate(method.getName(), script, temp); 
+               }
+               finally
+               {
+                  script.getProfiler().exit(script.getScriptEnvironment().getCurrentSource(), -1);
+               }
+            }
+            else
+            {
+               value = func.evaluate(method.getName(), script, temp); 
             }
 
             if (message != null)
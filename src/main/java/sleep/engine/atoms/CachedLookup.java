@@ -0,0 +1,53 @@
+/* 
+ * Copyright (C) 2002-2012 Raphael Mudge (rsmudge@gmail.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package sleep.engine.atoms;
+
+import java.util.*;
+import java.lang.ref.WeakReference;
+import sleep.runtime.*;
+
+/** something a step looked up in the environment of a script.  the lookup stays valid until the environment changes.  the 
+    fields are final so a step can share this between threads without locking.  the environment and the value are held weakly:
+    steps are shared with forks, and a fork's environment (or a subroutine copied for the fork) would otherwise keep the whole
+    fork alive after it's done.  while the environment is alive and unchanged it still holds the value. */
+final class CachedLookup
+{
+   final WeakReference environment;
+   final int           version;
+   final WeakReference value;
+
+   /** version must be read before the value is looked up, otherwise a change in between would be missed */
+   CachedLookup(Hashtable _environment, int _version, Object _value)
+   {
+      environment = new WeakReference(_environment);
+      version     = _version;
+      value       = new WeakReference(_value);
+   }
+
+   /** returns true if this lookup is still valid for the specified environment */
+   boolean isValid(Hashtable _environment)
+   {
+      return environment.get() == _environment && version != -1 && version == EnvironmentTable.getVersion(_environment);
+   }
+
+   /** returns the value that was looked up, call isValid first */
+   Object getValue()
+   {
+      return value.get();
+   }
+}
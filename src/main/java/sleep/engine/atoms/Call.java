@@ -26,10 +26,14 @@ import sleep.runtime.*;
 public class Call extends Step
 {
    String function;
+   String inlineName; /* key of the inline sub with this name, i.e. ^function */
+
+   transient CachedLookup cache = null;
  
    public Call(String f)
    {
-      function = f;
+      function   = f;
+      inlineName = "^" + f;
    }
 
    public String toString(String prefix)
@@ -37,6 +41,27 @@ public class Call extends Step
       return prefix + "[Function Call]: "+function+"\n";
    }
 
+   /** looks up the function or inline sub this step calls.  the result is cached until the environment changes */
+   private Object resolve(ScriptEnvironment e)
+   {
+      Hashtable    env  = e.getEnvironment();
+      CachedLookup temp = cache;
+
+      if (temp != null && temp.isValid(env))
+         return temp.getValue();
+
+      int    version = EnvironmentTable.getVersion(env);
+      Object value   = env.get(function);
+
+      if (value == null)
+         value = env.get(inlineName == null ? "^" + function : inlineName);
+
+      if (value != null && version != -1)
+         cache = new CachedLookup(env, version, value);
+
+      return value;
+   }
+
    // Pre Condition:
    //  arguments on the current stack (to allow stack to be passed0
    //
@@ -45,17 +70,20 @@ public class Call extends Step
 
    public Scalar evaluate(ScriptEnvironment e)
    {
-      Function callme = e.getFunction(function);
-      Block    inline = null;
+      Object callme = resolve(e);
 
-      if (callme != null)
+      if (callme instanceof Function && !e.getScriptInstance().isTraceCalls())
+      {
+         CallRequest.CallFunction(e, getLineNumber(), function, (Function)callme);
+      }
+      else if (callme instanceof Function)
       {
-         CallRequest.FunctionCallRequest request = new CallRequest.FunctionCallRequest(e, getLineNumber(), function, callme);         
+         CallRequest.FunctionCallRequest request = new CallRequest.FunctionCallRequest(e, getLineNumber(), function, (Function)callme);         
          request.CallFunction();
       }
-      else if ((inline = e.getBlock(function)) != null)
+      else if (callme instanceof Block)
       {
-         CallRequest.InlineCallRequest request = new CallRequest.InlineCallRequest(e, getLineNumber(), function, inline);
+         CallRequest.InlineCallRequest request = new CallRequest.InlineCallRequest(e, getLineNumber(), function, (Block)callme);
          request.CallFunction();
       }
       else
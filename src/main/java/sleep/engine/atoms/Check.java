@@ -68,6 +68,11 @@ public class Check implements Serializable
 
    public String name; 
 
+   /** the numeric comparison this predicate is, see NumericOperate */
+   private int opcode;
+
+   private transient CachedLookup cache = null;
+
    /** Converts this object to a string, used by the sleep engine for constructing an AST like thing */
    public String toString(String prefix)
    {     
@@ -121,6 +126,7 @@ public class Check implements Serializable
          negate = false;
       }
       setup = s;
+      opcode = NumericOperate.getOpcode(name) >= NumericOperate.OP_EQ ? NumericOperate.getOpcode(name) : NumericOperate.OP_NONE;
 
       iftrue = null;
       iffalse = null;
@@ -148,16 +154,46 @@ public class Check implements Serializable
       hint = _hint;
    }
 
+   /** looks up the predicate for this check.  the result is cached until the environment changes */
+   private Predicate resolve(ScriptEnvironment env)
+   {
+      Hashtable    table = env.getEnvironment();
+      CachedLookup temp  = cache;
+
+      if (temp != null && temp.isValid(table))
+         return (Predicate)temp.getValue();
+
+      int       version = EnvironmentTable.getVersion(table);
+      Predicate value   = (Predicate)table.get(name);
+
+      if (value != null && version != -1)
+         cache = new CachedLookup(table, version, value);
+
+      return value;
+   }
+
    /** Performs this "check".  Returns the value of the condition that is checked. */
    public boolean check(ScriptEnvironment env)
    {
       env.CreateFrame();
       setup.evaluate(env);
-      Predicate choice = env.getPredicate(name);
+      Predicate choice = resolve(env);
  
       boolean temp;
+      int     result = -1;
 
-      if (choice == null)
+      /* numeric comparisons with the stock number bridge are decided here, see BasicNumbers.decide */
+      if (opcode != NumericOperate.OP_NONE && NumericOperate.isBasicNumbers(choice) && env.getCurrentFrame().size() == 2 && (env.getScriptInstance().getDebugFlags() & ScriptInstance.DEBUG_TRACE_LOGIC) != ScriptInstance.DEBUG_TRACE_LOGIC)
+      {
+         Stack frame = env.getCurrentFrame();
+         result = NumericOperate.decide(opcode, ((Scalar)frame.get(0)).getActualValue(), ((Scalar)frame.get(1)).getActualValue());
+      }
+
+      if (result != -1)
+      {
+         temp = result == 1;
+      }
+      else if (choice == null)
       {
          env.getScriptInstance().fireWarning("Attempted to use non-existent predicate: " + name, hint);
          temp = false;
@@ -22,15 +22,33 @@ import sleep.interfaces.*;
 import sleep.engine.*;
 import sleep.runtime.*;
 
+import sleep.bridges.SlotVariable;
+
 public class Get extends Step
 {
    String value;
+
+   LocalSlots slots = null;
+   int        slot  = -1;
   
    public Get(String v)
    {
       value = v;
    }
 
+   /** returns the name of the variable this step gets */
+   public String getName()
+   {
+      return value;
+   }
+
+   /** resolves this variable to a slot within the local variable layout of the enclosing closure */
+   public void setSlot(LocalSlots _slots, int _slot)
+   {
+      slots = _slots;
+      slot  = _slot;
+   }
+
    public String toString(String prefix)
    {
       return prefix + "[Get Item]: "+value+"\n";
@@ -38,6 +56,20 @@ public class Get extends Step
 
    public Scalar evaluate(ScriptEnvironment e)
    {
+      if (slot != -1)
+      {
+         Variable local = e.getScriptVariables().getLocalVariables();
+         if (local instanceof SlotVariable)
+         {
+            Scalar structure = ((SlotVariable)local).getSlot(slots, slot);
+            if (structure != null)
+            {
+               e.getCurrentFrame().push(structure);
+               return null;
+            }
+         }
+      }
+
       if (value.charAt(0) == '&')
       {
          Function func = e.getFunction(value);
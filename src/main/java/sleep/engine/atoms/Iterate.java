@@ -23,6 +23,7 @@ import sleep.engine.*;
 import sleep.runtime.*;
 
 import sleep.bridges.SleepClosure;
+import sleep.bridges.SlotVariable;
 
 public class Iterate extends Step
 {
@@ -37,6 +38,26 @@ public class Iterate extends Step
       public Scalar   source   = null;
       public Iterator iterator = null;
       public int      count    = 0;
+
+      /* the slots of the key and value when their containers are the local scope the slots were resolved for, -1 otherwise */
+      public int      kslot    = -1;
+      public int      vslot    = -1;
+
+      public void putKey(Scalar next)
+      {
+         if (kslot != -1)
+            ((SlotVariable)kenv).putSlot(kslot, next);
+         else
+            kenv.putScalar(key, next);
+      }
+
+      public void putValue(Scalar next)
+      {
+         if (vslot != -1)
+            ((SlotVariable)venv).putSlot(vslot, next);
+         else
+            venv.putScalar(value, next);
+      }
    }
 
    public static final int ITERATOR_CREATE   = 1;
@@ -69,6 +90,40 @@ public class Iterate extends Step
       value = _value;
    }
 
+   /** returns the name of the key variable of this foreach loop (null if there isn't one) */
+   public String getKey()
+   {
+      return key;
+   }
+
+   /** returns the name of the value variable of this foreach loop */
+   public String getValue()
+   {
+      return value;
+   }
+
+   protected LocalSlots slots     = null;
+   protected int        keySlot   = -1;
+   protected int        valueSlot = -1;
+
+   /** resolves the key and value variables to slots (-1 for none) within the local variable layout of the enclosing closure */
+   public void setSlots(LocalSlots _slots, int _keySlot, int _valueSlot)
+   {
+      slots     = _slots;
+      keySlot   = _keySlot;
+      valueSlot = _valueSlot;
+   }
+
+   /** returns the slot for a variable found in the specified container, -1 if the container isn't the local scope the slot
+       was resolved for */
+   private int getSlot(Variable container, int slot)
+   {
+      if (slot != -1 && container instanceof SlotVariable && ((SlotVariable)container).hasLayout(slots))
+         return slot;
+
+      return -1;
+   }
+
    private void iterator_destroy(ScriptEnvironment e)
    {
       Stack iterators = (Stack)(e.getContextMetadata("iterators"));
@@ -102,6 +157,8 @@ public class Iterate extends Step
          }
       }
 
+      data.vslot = getSlot(data.venv, valueSlot);
+
       if (key != null)
       {
          data.key  = key;
@@ -116,6 +173,8 @@ public class Iterate extends Step
                e.showDebugMessage("variable '" + data.key + "' not declared");
             }
          }
+
+         data.kslot = getSlot(data.kenv, keySlot);
       }
       
       //
@@ -194,24 +253,24 @@ public class Iterate extends Step
 
          if (data.key != null)
          {  
-            data.kenv.putScalar(data.key, SleepUtils.getScalar(((Map.Entry)next).getKey()));
-            data.venv.putScalar(data.value, (Scalar)((Map.Entry)next).getValue());
+            data.putKey(SleepUtils.getScalar(((Map.Entry)next).getKey()));
+            data.putValue((Scalar)((Map.Entry)next).getValue());
          }
          else
          {
-            data.venv.putScalar(data.value, SleepUtils.getScalar(((Map.Entry)next).getKey()));
+            data.putValue(SleepUtils.getScalar(((Map.Entry)next).getKey()));
          }
       }
       else
       {
          if (data.key != null)
          {
-            data.kenv.putScalar(data.key, SleepUtils.getScalar(data.count));
-            data.venv.putScalar(data.value, (Scalar)next);
+            data.putKey(SleepUtils.getScalar(data.count));
+            data.putValue((Scalar)next);
          }
          else
          {
-            data.venv.putScalar(data.value, (Scalar)next);
+            data.putValue((Scalar)next);
          }
       }
 
@@ -0,0 +1,238 @@
+/* 
+ * Copyright (C) 2002-2012 Raphael Mudge (rsmudge@gmail.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package sleep.engine.atoms;
+
+import java.util.*;
+import sleep.interfaces.*;
+import sleep.engine.*;
+import sleep.engine.types.*;
+import sleep.runtime.*;
+
+import sleep.bridges.BasicNumbers;
+
+/** An arithmetic operator (+, -, *, /, %) that computes int, long, and double operands directly.  The operator is only computed
+ *  here if the environment still maps it to the stock BasicNumbers bridge and both operands are numbers, otherwise this step 
+ *  works like any other Operate step.  The math follows BasicNumbers: double if either side is a double, long if either side is
+ *  a long, and int otherwise.  Check uses the same shortcut for the numeric comparison predicates. */
+public class NumericOperate extends Operate
+{
+   public static final int OP_NONE = 0;
+   public static final int OP_ADD  = 1;
+   public static final int OP_SUB  = 2;
+   public static final int OP_MUL  = 3;
+   public static final int OP_DIV  = 4;
+   public static final int OP_MOD  = 5;
+
+   public static final int OP_EQ   = 6;
+   public static final int OP_NE   = 7;
+   public static final int OP_LE   = 8;
+   public static final int OP_GE   = 9;
+   public static final int OP_LT   = 10;
+   public static final int OP_GT   = 11;
+
+   protected int opcode;
+
+   public NumericOperate(String o)
+   {
+      super(o);
+      opcode = getOpcode(o);
+   }
+
+   public String toString(String prefix)
+   {
+      return prefix + "[Numeric Operator]: "+oper+"\n";
+   }
+
+   /** returns the opcode for the specified operator or predicate name, OP_NONE if it isn't one of the numeric operations */
+   public static int getOpcode(String name)
+   {
+      if (name.equals("+"))  { return OP_ADD; }
+      if (name.equals("-"))  { return OP_SUB; }
+      if (name.equals("*"))  { return OP_MUL; }
+      if (name.equals("/"))  { return OP_DIV; }
+      if (name.equals("% ")) { return OP_MOD; }
+      if (name.equals("==")) { return OP_EQ; }
+      if (name.equals("!=")) { return OP_NE; }
+      if (name.equals("<=")) { return OP_LE; }
+      if (name.equals(">=")) { return OP_GE; }
+      if (name.equals("<"))  { return OP_LT; }
+      if (name.equals(">"))  { return OP_GT; }
+      return OP_NONE;
+   }
+
+   /** returns true if the specified operator is an arithmetic operator this step can compute */
+   public static boolean isNumericOperator(String name)
+   {
+      int op = getOpcode(name);
+      return op >= OP_ADD && op <= OP_MOD;
+   }
+
+   /** returns true if the specified bridge is the stock number bridge (and not a wrapper or subclass of it) */
+   public static boolean isBasicNumbers(Object bridge)
+   {
+      return bridge != null && bridge.getClass() == BasicNumbers.class;
+   }
+
+   /** 0 for an int, 1 for a long, 2 for a double, and -1 for anything else */
+   private static int rank(ScalarType value)
+   {
+      if (value == null)                    { return -1; }
+      if (value.getClass() == IntValue.class)    { return 0; }
+      if (value.getClass() == LongValue.class)   { return 1; }
+      if (value.getClass() == DoubleValue.class) { return 2; }
+      return -1;
+   }
+
+   /** computes the specified arithmetic operation.  returns null if either operand is not an int, long, or double */
+   public static Scalar operate(int op, ScalarType left, ScalarType right)
+   {
+      int ra = rank(left);
+      int rb = rank(right);
+
+      if (ra == -1 || rb == -1)
+         return null;
+
+      if (ra == 2 || rb == 2)
+      {
+         double a = left.doubleValue();
+         double b = right.doubleValue();
+
+         switch (op)
+         {
+            case OP_ADD: return SleepUtils.getScalar(a + b);
+            case OP_SUB: return SleepUtils.getScalar(a - b);
+            case OP_MUL: return SleepUtils.getScalar(a * b);
+            case OP_DIV: return SleepUtils.getScalar(a / b);
+            case OP_MOD: return SleepUtils.getScalar(a % b);
+         }
+      }
+      else if (ra == 1 || rb == 1)
+      {
+         long a = left.longValue();
+         long b = right.longValue();
+
+         switch (op)
+         {
+            case OP_ADD: return SleepUtils.getScalar(a + b);
+            case OP_SUB: return SleepUtils.getScalar(a - b);
+            case OP_MUL: return SleepUtils.getScalar(a * b);
+            case OP_DIV: return SleepUtils.getScalar(a / b);
+            case OP_MOD: return SleepUtils.getScalar(a % b);
+         }
+      }
+      else
+      {
+         int a = left.intValue();
+         int b = right.intValue();
+
+         switch (op)
+         {
+            case OP_ADD: return SleepUtils.getScalar(a + b);
+            case OP_SUB: return SleepUtils.getScalar(a - b);
+            case OP_MUL: return SleepUtils.getScalar(a * b);
+            case OP_DIV: return SleepUtils.getScalar(a / b);
+            case OP_MOD: return SleepUtils.getScalar(a % b);
+         }
+      }
+
+      return null;
+   }
+
+   /** decides the specified comparison.  returns 1 for true, 0 for false, and -1 if either operand is not an int, long, or double */
+   public static int decide(int op, ScalarType left, ScalarType right)
+   {
+      int ra = rank(left);
+      int rb = rank(right);
+
+      if (ra == -1 || rb == -1)
+         return -1;
+
+      boolean result;
+
+      if (ra == 2 || rb == 2)
+      {
+         double a = left.doubleValue();
+         double b = right.doubleValue();
+
+         switch (op)
+         {
+            case OP_EQ: result = a == b; break;
+            case OP_NE: result = a != b; break;
+            case OP_LE: result = a <= b; break;
+            case OP_GE: result = a >= b; break;
+            case OP_LT: result = a <  b; break;
+            case OP_GT: result = a >  b; break;
+            default: return -1;
+         }
+      }
+      else if (ra == 1 || rb == 1)
+      {
+         long a = left.longValue();
+         long b = right.longValue();
+
+         switch (op)
+         {
+            case OP_EQ: result = a == b; break;
+            case OP_NE: result = a != b; break;
+            case OP_LE: result = a <= b; break;
+            case OP_GE: result = a >= b; break;
+            case OP_LT: result = a <  b; break;
+            case OP_GT: result = a >  b; break;
+            default: return -1;
+         }
+      }
+      else
+      {
+         int a = left.intValue();
+         int b = right.intValue();
+
+         switch (op)
+         {
+            case OP_EQ: result = a == b; break;
+            case OP_NE: result = a != b; break;
+            case OP_LE: result = a <= b; break;
+            case OP_GE: result = a >= b; break;
+            case OP_LT: result = a <  b; break;
+            case OP_GT: result = a >  b; break;
+            default: return -1;
+         }
+      }
+
+      return result ? 1 : 0;
+   }
+
+   public Scalar evaluate(ScriptEnvironment e)
+   {
+      Stack frame = e.getCurrentFrame();
+
+      if (frame.size() == 2 && isBasicNumbers(resolve(e)))
+      {
+         /* the left hand side is on top of the frame, see BasicNumbers.operate */
+         Scalar result = operate(opcode, ((Scalar)frame.get(1)).getActualValue(), ((Scalar)frame.get(0)).getActualValue());
+
+         if (result != null)
+         {
+            e.KillFrame();
+            e.getCurrentFrame().push(result);
+            return null;
+         }
+      }
+
+      return super.evaluate(e);
+   }
+}
@@ -155,7 +155,12 @@ public class ObjectAccess extends Step
       // check if this is a closure, if it is, try to invoke stuff on it instead
       //
 
-      if (scalar != null && SleepUtils.isFunctionScalar(scalar))
+      if (scalar != null && SleepUtils.isFunctionScalar(scalar) && !e.getScriptInstance().isTraceCalls())
+      {
+         CallRequest.CallClosure(e, getLineNumber(), scalar, name);
+         return null;
+      }
+      else if (scalar != null && SleepUtils.isFunctionScalar(scalar))
       {
          CallRequest.ClosureCallRequest request = new CallRequest.ClosureCallRequest(e, getLineNumber(), scalar, name);
          request.CallFunction();
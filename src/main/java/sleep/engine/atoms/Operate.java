@@ -26,11 +26,19 @@ public class Operate extends Step
 {
    String oper;
 
+   transient CachedLookup cache = null;
+
    public Operate(String o)
    {
        oper = o;
    }
 
+   /** returns the name of the operator this step applies */
+   public String getOperator()
+   {
+       return oper;
+   }
+
    public String toString(String prefix)
    {
        return prefix + "[Operator]: "+oper+"\n";
@@ -45,9 +53,27 @@ public class Operate extends Step
    //   return value of operation placed on parent frame
    //
 
+   /** looks up the operator this step uses.  the result is cached until the environment changes */
+   protected Operator resolve(ScriptEnvironment e)
+   {
+      Hashtable    env  = e.getEnvironment();
+      CachedLookup temp = cache;
+
+      if (temp != null && temp.isValid(env))
+         return (Operator)temp.getValue();
+
+      int      version = EnvironmentTable.getVersion(env);
+      Operator value   = (Operator)env.get(oper);
+
+      if (value != null && version != -1)
+         cache = new CachedLookup(env, version, value);
+
+      return value;
+   }
+
    public Scalar evaluate(ScriptEnvironment e)
    {
-      Operator callme = e.getOperator(oper);
+      Operator callme = resolve(e);
 
       if (callme != null)
       {
@@ -32,6 +32,12 @@ public class Return extends Step
       return_type = type;
    }
 
+   /** returns the type of flow control this step requests, see ScriptEnvironment.FLOW_CONTROL_* */
+   public int getReturnType()
+   {
+      return return_type;
+   }
+
    public String toString(String prefix)
    {
       return prefix + "[Return]: " + return_type + " \n";
@@ -36,6 +36,12 @@ public class SValue extends Step
       value = v;
    }
 
+   /** returns the constant value this step pushes */
+   public Scalar getValue()
+   {
+      return value;
+   }
+
    public Scalar evaluate(ScriptEnvironment e)
    {
       e.getCurrentFrame().push(SleepUtils.getScalar(value));
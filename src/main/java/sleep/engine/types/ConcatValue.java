@@ -0,0 +1,121 @@
+/* 
+ * Copyright (C) 2002-2012 Raphael Mudge (rsmudge@gmail.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package sleep.engine.types;
+
+import sleep.runtime.*;
+
+/** A string built up with the . operator.  The characters live in a StringBuilder shared by every ConcatValue made from the
+ *  same first value, each value knows how many characters of the builder belong to it.  The builder only ever grows so a
+ *  value never changes once it is made.  Appending to the value that ends at the end of the builder (the usual case for
+ *  $buffer = $buffer . $text) appends to the builder in place.  Appending to any other value copies its characters first.
+ *
+ *  <p>The string is put together the first time something asks for it (toString, a numeric value, a regex, etc.)</p>
+ *
+ *  <p>A ConcatValue reports its type as StringValue so it looks like any other string to the rest of Sleep.</p>
+ */
+public class ConcatValue extends StringValue
+{
+   /** strings shorter than this are concatenated the normal way */
+   public static final int THRESHOLD = 256;
+
+   protected transient StringBuilder buffer;
+   protected transient int           length;
+
+   protected ConcatValue(StringBuilder _buffer, int _length)
+   {
+      super(null);
+      buffer = _buffer;
+      length = _length;
+   }
+
+   /** returns a scalar with the value of left . right */
+   public static Scalar concat(Scalar left, Scalar right)
+   {
+      String      text  = right.toString();
+      ScalarType  value = left.getActualValue();
+
+      if (value instanceof ConcatValue)
+         return wrap(((ConcatValue)value).append(text));
+
+      String start = left.toString();
+
+      if (start.length() + text.length() < THRESHOLD)
+         return SleepUtils.getScalar(start + text);
+
+      StringBuilder temp = new StringBuilder((start.length() + text.length()) * 2);
+      temp.append(start);
+      temp.append(text);
+      return wrap(new ConcatValue(temp, temp.length()));
+   }
+
+   private static Scalar wrap(ScalarType value)
+   {
+      Scalar temp = new Scalar();
+      temp.setValue(value);
+      return temp;
+   }
+
+   /** returns a new value with the specified text after this one */
+   public ConcatValue append(String text)
+   {
+      synchronized (buffer)
+      {
+         if (buffer.length() == length)
+         {
+            buffer.append(text);
+            return new ConcatValue(buffer, buffer.length());
+         }
+
+         StringBuilder temp = new StringBuilder((length + text.length()) * 2);
+         temp.append(buffer, 0, length);
+         temp.append(text);
+         return new ConcatValue(temp, temp.length());
+      }
+   }
+
+   /** the number of characters in this string */
+   public int length()
+   {
+      return length;
+   }
+
+   public String toString()
+   {
+      String temp = value;
+      if (temp == null)
+      {
+         synchronized (buffer)
+         {
+            temp = buffer.substring(0, length);
+         }
+         value = temp;
+      }
+      return temp;
+   }
+
+   public Class getType()
+   {
+      return StringValue.class;
+   }
+
+   /** serialized as a plain string */
+   private Object writeReplace()
+   {
+      return new StringValue(toString());
+   }
+}
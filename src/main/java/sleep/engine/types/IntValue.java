@@ -23,11 +23,32 @@ public class IntValue implements ScalarType
 {
    protected int value;
 
+   /** shared values for -128 to 1024, these cover loop counters and the results of predicates */
+   private static final IntValue[] cache = new IntValue[1024 + 128 + 1];
+
+   static
+   {
+      for (int x = 0; x < cache.length; x++)
+      {
+         cache[x] = new IntValue(x - 128);
+      }
+   }
+
    public IntValue(int _value)
    {
       value = _value;
    }
 
+   /** returns an IntValue for the specified int, a shared one if the int is small.  IntValues never change so they are
+       safe to share, and objectValue() boxes a new Integer each time so &is can't tell a shared value apart */
+   public static IntValue valueOf(int _value)
+   {
+      if (_value >= -128 && _value <= 1024)
+         return cache[_value + 128];
+
+      return new IntValue(_value);
+   }
+
    public ScalarType copyValue()
    {
       return this;
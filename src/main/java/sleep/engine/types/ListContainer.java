@@ -20,14 +20,14 @@ package sleep.engine.types;
 import sleep.runtime.*;
 import java.util.*;
 
-/** A linked list backing for Sleep Arrays. Most array ops are better off with this type of backing */
+/** The container for Sleep arrays.  The default backing is a MyArrayList, any List will do */
 public class ListContainer implements ScalarArray
 {
    protected List values;
 
    public ListContainer()
    {
-      values = new MyLinkedList();
+      values = new MyArrayList();
    }
 
    public ListContainer(List list)
@@ -43,8 +43,7 @@ public class ListContainer implements ScalarArray
    /** initial values must be a collection of Scalar's */
    public ListContainer(Collection initialValues)
    {
-      this();
-      values.addAll(initialValues);
+      values = new MyArrayList(initialValues);
    }
 
    public Scalar pop()
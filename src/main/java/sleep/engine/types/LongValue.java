@@ -23,11 +23,32 @@ public class LongValue implements ScalarType
 {
    protected long value;
 
+   /** shared values for -128 to 1024 */
+   private static final LongValue[] cache = new LongValue[1024 + 128 + 1];
+
+   static
+   {
+      for (int x = 0; x < cache.length; x++)
+      {
+         cache[x] = new LongValue(x - 128);
+      }
+   }
+
    public LongValue(long _value)
    {
       value = _value;
    }
 
+   /** returns a LongValue for the specified long, a shared one if the long is small (objectValue() still boxes a new Long
+       each time, see IntValue.valueOf) */
+   public static LongValue valueOf(long _value)
+   {
+      if (_value >= -128 && _value <= 1024)
+         return cache[(int)_value + 128];
+
+      return new LongValue(_value);
+   }
+
    public ScalarType copyValue()
    {
       return this;
@@ -0,0 +1,476 @@
+/* 
+ * Copyright (C) 2002-2012 Raphael Mudge (rsmudge@gmail.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package sleep.engine.types;
+
+import java.io.Serializable;
+import java.util.*;
+
+/** The default backing for Sleep arrays.  A growable array used as a ring buffer: get and set by index are O(1) and so are
+ *  adding and removing at either end (push, pop, shift, and unshift).  Adding or removing in the middle moves the elements
+ *  on the shorter side.
+ *
+ *  <p>Like MyLinkedList, a sublist is a view into its parent list.  Changes made through the sublist show up in the parent
+ *  and the sublist stops working (ConcurrentModificationException) once its parent is changed some other way.  Iterators 
+ *  fail the same way if the list changes under them.</p>
+ */
+public class MyArrayList extends AbstractList implements RandomAccess, Serializable
+{
+   private static class MyListIterator implements ListIterator, Serializable
+   {
+      protected MyArrayList root;
+      protected Sublist     sublist;    /* null when iterating over the root list */
+      protected List        list;
+      protected int         index;
+      protected int         last = -1;
+      protected int         modCountCheck;
+
+      public MyListIterator(MyArrayList _root, Sublist _sublist, int _index)
+      {
+         root          = _root;
+         sublist       = _sublist;
+         list          = sublist == null ? (List)root : (List)sublist;
+         index         = _index;
+         modCountCheck = changes();
+      }
+
+      private int changes()
+      {
+         return sublist == null ? root.changes() : sublist.changes();
+      }
+
+      public void checkSafety()
+      {
+         if (modCountCheck != changes())
+         {
+            throw new ConcurrentModificationException("@array changed during iteration");
+         }
+      }
+
+      public boolean hasNext()
+      {
+         return index < list.size();
+      }
+
+      public boolean hasPrevious()
+      {
+         return index > 0;
+      }
+
+      public Object next()
+      {
+         checkSafety();
+
+         if (index >= list.size())
+            throw new NoSuchElementException();
+
+         last = index;
+         index++;
+         return list.get(last);
+      }
+
+      public Object previous()
+      {
+         checkSafety();
+
+         if (index <= 0)
+            throw new NoSuchElementException();
+
+         index--;
+         last = index;
+         return list.get(last);
+      }
+
+      public int nextIndex()
+      {
+         return index;
+      }
+
+      public int previousIndex()
+      {
+         return index - 1;
+      }
+
+      public void remove()
+      {
+         if (last == -1)
+         {
+            throw new IllegalStateException("list is empty");
+         }
+
+         checkSafety();
+         list.remove(last);
+
+         if (last < index)
+            index--;
+
+         last          = -1;
+         modCountCheck = changes();
+      }
+
+      public void set(Object o)
+      {
+         if (last == -1)
+         {
+            throw new IllegalStateException("list is empty");
+         }
+
+         checkSafety();
+         list.set(last, o);
+      }
+
+      public void add(Object o)
+      {
+         checkSafety();
+         list.add(index, o);
+         index++;
+
+         last          = -1;
+         modCountCheck = changes();
+      }
+   }
+
+   /** a view of a range of the root list */
+   private static class Sublist extends AbstractList implements RandomAccess, Serializable
+   {
+      protected MyArrayList root;
+      protected int         offset;
+      protected int         size;
+      protected int         expected;
+
+      public Sublist(MyArrayList _root, int _offset, int _size)
+      {
+         root     = _root;
+         offset   = _offset;
+         size     = _size;
+         expected = root.changes();
+      }
+
+      /** the number of structural changes made through this sublist */
+      public int changes()
+      {
+         return modCount;
+      }
+
+      public void checkSafety()
+      {
+         if (expected != root.changes())
+         {
+            throw new ConcurrentModificationException("parent @array changed after &sublist creation");
+         }
+      }
+
+      private void checkIndex(int index, int max)
+      {
+         if (index < 0 || index > max)
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+      }
+
+      public int size()
+      {
+         return size;
+      }
+
+      public Object get(int index)
+      {
+         checkSafety();
+         checkIndex(index, size - 1);
+         return root.get(offset + index);
+      }
+
+      public Object set(int index, Object element)
+      {
+         checkSafety();
+         checkIndex(index, size - 1);
+         return root.set(offset + index, element);
+      }
+
+      public void add(int index, Object element)
+      {
+         checkSafety();
+         checkIndex(index, size);
+         root.add(offset + index, element);
+
+         expected = root.changes();
+         size++;
+         modCount++;
+      }
+
+      public Object remove(int index)
+      {
+         checkSafety();
+         checkIndex(index, size - 1);
+         Object value = root.remove(offset + index);
+
+         expected = root.changes();
+         size--;
+         modCount++;
+
+         return value;
+      }
+
+      public List subList(int beginAt, int endAt)
+      {
+         checkSafety();
+
+         if (beginAt < 0 || endAt > size || beginAt > endAt)
+            throw new IndexOutOfBoundsException("Sublist: " + beginAt + " to " + endAt + ", Size: " + size);
+
+         return new Sublist(root, offset + beginAt, endAt - beginAt);
+      }
+
+      public ListIterator listIterator(int index)
+      {
+         checkSafety();
+         checkIndex(index, size);
+         return new MyListIterator(root, this, index);
+      }
+
+      public Iterator iterator()
+      {
+         return listIterator(0);
+      }
+
+      /** a serialized sublist comes back as a list of its own */
+      private Object writeReplace()
+      {
+         return new MyArrayList(this);
+      }
+   }
+
+   private transient Object[] data;
+   private transient int      head = 0;
+   private transient int      size = 0;
+
+   public MyArrayList()
+   {
+      data = new Object[8];
+   }
+
+   /** creates a list with the elements of the specified collection, in iterator order */
+   public MyArrayList(Collection values)
+   {
+      int capacity = 8;
+      while (capacity < values.size())
+      {
+         capacity *= 2;
+      }
+
+      data = new Object[capacity];
+
+      Iterator i = values.iterator();
+      while (i.hasNext())
+      {
+         data[size] = i.next();
+         size++;
+      }
+   }
+
+   /** the number of structural changes made to this list */
+   private int changes()
+   {
+      return modCount;
+   }
+
+   public int size()
+   {
+      return size;
+   }
+
+   private void checkIndex(int index, int max)
+   {
+      if (index < 0 || index > max)
+         throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+   }
+
+   /** doubles the capacity, the elements start at index 0 of the new array */
+   private void grow()
+   {
+      Object[] temp = new Object[data.length * 2];
+      int      mask = data.length - 1;
+
+      for (int x = 0; x < size; x++)
+      {
+         temp[x] = data[(head + x) & mask];
+      }
+
+      data = temp;
+      head = 0;
+   }
+
+   /** get an object from the list */
+   public Object get(int index)
+   {
+      if (index < 0 || index >= size)
+         throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+
+      return data[(head + index) & (data.length - 1)];
+   }
+
+   /** replace the object at the specified index */
+   public Object set(int index, Object element)
+   {
+      checkIndex(index, size - 1);
+
+      int    slot  = (head + index) & (data.length - 1);
+      Object value = data[slot];
+      data[slot]   = element;
+      return value;
+   }
+
+   /** add an object to the end of the list */
+   public boolean add(Object o)
+   {
+      if (size == data.length)
+         grow();
+
+      data[(head + size) & (data.length - 1)] = o;
+      size++;
+      modCount++;
+      return true;
+   }
+
+   /** add an object to the list at the specified index */
+   public void add(int index, Object element)
+   {
+      checkIndex(index, size);
+
+      if (size == data.length)
+         grow();
+
+      int mask = data.length - 1;
+
+      if (index < size / 2)
+      {
+         /* move the elements before the index one slot to the left */
+         head = (head - 1) & mask;
+         for (int x = 0; x < index; x++)
+         {
+            data[(head + x) & mask] = data[(head + x + 1) & mask];
+         }
+      }
+      else
+      {
+         /* move the elements from the index on one slot to the right */
+         for (int x = size; x > index; x--)
+         {
+            data[(head + x) & mask] = data[(head + x - 1) & mask];
+         }
+      }
+
+      data[(head + index) & mask] = element;
+      size++;
+      modCount++;
+   }
+
+   /** remove an object at the specified index */
+   public Object remove(int index)
+   {
+      checkIndex(index, size - 1);
+
+      int    mask  = data.length - 1;
+      Object value = data[(head + index) & mask];
+
+      if (index < size / 2)
+      {
+         /* move the elements before the index one slot to the right */
+         for (int x = index; x > 0; x--)
+         {
+            data[(head + x) & mask] = data[(head + x - 1) & mask];
+         }
+
+         data[head] = null;
+         head = (head + 1) & mask;
+      }
+      else
+      {
+         /* move the elements after the index one slot to the left */
+         for (int x = index; x < size - 1; x++)
+         {
+            data[(head + x) & mask] = data[(head + x + 1) & mask];
+         }
+
+         data[(head + size - 1) & mask] = null;
+      }
+
+      size--;
+      modCount++;
+      return value;
+   }
+
+   public void clear()
+   {
+      Arrays.fill(data, null);
+      head = 0;
+      size = 0;
+      modCount++;
+   }
+
+   public List subList(int beginAt, int endAt)
+   {
+      if (beginAt < 0 || endAt > size || beginAt > endAt)
+         throw new IndexOutOfBoundsException("Sublist: " + beginAt + " to " + endAt + ", Size: " + size);
+
+      return new Sublist(this, beginAt, endAt - beginAt);
+   }
+
+   public ListIterator listIterator(int index)
+   {
+      checkIndex(index, size);
+      return new MyListIterator(this, null, index);
+   }
+
+   public Iterator iterator()
+   {
+      return listIterator(0);
+   }
+
+   /* save this list to the stream */
+   private synchronized void writeObject(java.io.ObjectOutputStream out) throws java.io.IOException 
+   {
+      out.defaultWriteObject();
+      out.writeInt(size);
+
+      for (int x = 0; x < size; x++)
+      {
+         out.writeObject(get(x));
+      }
+   }
+
+   /* reconstitute this list from the stream */
+   private synchronized void readObject(java.io.ObjectInputStream in) throws java.io.IOException, ClassNotFoundException 
+   {
+      in.defaultReadObject();
+
+      int count    = in.readInt();
+      int capacity = 8;
+      while (capacity < count)
+      {
+         capacity *= 2;
+      }
+
+      data = new Object[capacity];
+      head = 0;
+      size = 0;
+
+      for (int x = 0; x < count; x++)
+      {
+         data[x] = in.readObject();
+         size++;
+      }
+   }
+}
@@ -0,0 +1,412 @@
+/* 
+ * Copyright (C) 2002-2012 Raphael Mudge (rsmudge@gmail.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package sleep.engine.types;
+
+import sleep.runtime.*;
+
+import java.util.*;
+
+/** The default container for Sleep hashes.  An open addressing table of String keys that knows which of its entries are
+ *  live.  Looking up a missing key hands out a placeholder (so %foo["bar"]["baz"] = 3 works) but the placeholder doesn't
+ *  count as a key until something is stored in it.  Storing $null in a key takes it back out of the hash.  This way keys(),
+ *  size(), and foreach never have to go through the table to clean out placeholders.
+ *
+ *  <p>Entries live in the table sorted by home bucket (no wrap around, the table has an overflow area past the last bucket)
+ *  and in insertion order within a bucket.  The bucket is computed the same way java.util.HashMap does it so hashes
+ *  iterate in the same order they always have.</p>
+ */
+public class OpenHashContainer implements ScalarHash
+{
+   /** the table: entries sorted by home bucket, null for an open slot */
+   protected Slot[] table;
+
+   /** the number of buckets (a power of two).  slots past the last bucket are the overflow area */
+   protected int     buckets;
+
+   /** the number of entries in the table (live entries and placeholders) */
+   protected int     count    = 0;
+
+   /** the number of entries with a value */
+   protected int     live     = 0;
+
+   /** bumped whenever entries are added to or taken out of the table */
+   protected int     modCount = 0;
+
+   public OpenHashContainer()
+   {
+      this(16);
+   }
+
+   /** constructs a hash with room for the specified number of buckets (rounded up to a power of two) */
+   public OpenHashContainer(int size)
+   {
+      buckets = 16;
+      while (buckets < size)
+         buckets = buckets << 1;
+
+      table = new Slot[(buckets << 1) + 16];
+   }
+
+   /** a value stored in this hash.  setting it keeps the hash up to date */
+   private class Slot extends Scalar
+   {
+      protected String  key;
+      protected int     code;
+      protected boolean attached = false;
+      protected boolean full     = false;
+      protected boolean dropped  = false;
+
+      public Slot(String _key, int _code)
+      {
+         key   = _key;
+         code  = _code;
+         value = SleepUtils.getEmptyScalar().getValue();
+      }
+
+      public void setValue(ScalarType _value)
+      {
+         super.setValue(_value);
+         changed();
+      }
+
+      public void setValue(ScalarArray _array)
+      {
+         super.setValue(_array);
+         changed();
+      }
+
+      public void setValue(ScalarHash _hash)
+      {
+         super.setValue(_hash);
+         changed();
+      }
+
+      private void changed()
+      {
+         boolean now = !SleepUtils.isEmptyScalar(this);
+
+         if (attached)
+         {
+            if (now != full)
+            {
+               full  = now;
+               live += now ? 1 : -1;
+            }
+         }
+         else if (now && !dropped)
+         {
+            /* a placeholder that was cleaned out of the table, put it back */
+            int index = find(key, code);
+            if (index >= 0)
+            {
+               table[index].setValue(this);
+            }
+            else
+            {
+               insert(this);
+            }
+         }
+      }
+   }
+
+   /** the same bit spreading java.util.HashMap does */
+   private static int spread(int h)
+   {
+      return h ^ (h >>> 16);
+   }
+
+   /** the first slot an entry with this hash code can go in.  there are two slots for each bucket so runs of entries
+       stay short */
+   private int home(int code)
+   {
+      return (code & (buckets - 1)) << 1;
+   }
+
+   /** returns the slot holding the specified key or -1 */
+   private int find(String key, int code)
+   {
+      int start = home(code);
+      for (int x = start; x < table.length; x++)
+      {
+         Slot temp = table[x];
+         if (temp == null || home(temp.code) > start)
+            return -1;
+
+         if (temp.code == code && temp.key.equals(key))
+            return x;
+      }
+      return -1;
+   }
+
+   /** adds an entry to the table after the entries already in its bucket */
+   private void insert(Slot entry)
+   {
+      if (count >= (buckets >> 1) + (buckets >> 2))
+         resize();
+
+      int start = home(entry.code);
+      int x     = start;
+      while (x < table.length && table[x] != null && home(table[x].code) <= start)
+         x++;
+
+      int open = x;
+      while (open < table.length && table[open] != null)
+         open++;
+
+      if (open == table.length)
+      {
+         /* lots of keys in the last buckets, make the overflow area bigger */
+         Slot[] temp = new Slot[table.length * 2 - (buckets << 1)];
+         System.arraycopy(table, 0, temp, 0, table.length);
+         table = temp;
+      }
+
+      System.arraycopy(table, x, table, x + 1, open - x);
+      table[x] = entry;
+
+      entry.attached = true;
+      entry.full     = !SleepUtils.isEmptyScalar(entry);
+
+      count++;
+      if (entry.full)
+         live++;
+
+      modCount++;
+   }
+
+   /** takes the entry in the specified slot out of the table, the entries after it move back to fill the hole */
+   private void delete(int index)
+   {
+      Slot entry = table[index];
+      entry.attached = false;
+      entry.dropped  = true;
+
+      if (entry.full)
+         live--;
+
+      int end = index + 1;
+      while (end < table.length && table[end] != null && home(table[end].code) < end)
+         end++;
+
+      System.arraycopy(table, index + 1, table, index, end - index - 1);
+      table[end - 1] = null;
+
+      count--;
+      modCount++;
+   }
+
+   /** rebuilds the table without its placeholders.  the number of buckets doubles if the live entries need the room */
+   private void resize()
+   {
+      Slot[] old = table;
+
+      if (live >= (buckets >> 2) + (buckets >> 3))
+         buckets = buckets << 1;
+
+      table = new Slot[(buckets << 1) + 16];
+      count = 0;
+      live  = 0;
+
+      for (int x = 0; x < old.length; x++)
+      {
+         if (old[x] != null)
+         {
+            old[x].attached = false;
+            if (old[x].full)
+               insert(old[x]);
+         }
+      }
+
+      modCount++;
+   }
+
+   public Scalar getAt(Scalar key)
+   {
+      String temp  = key.getValue().toString();
+      int    code  = spread(temp.hashCode());
+      int    index = find(temp, code);
+
+      if (index >= 0)
+         return table[index];
+
+      Slot entry = new Slot(temp, code);
+      insert(entry);
+      return entry;
+   }
+
+   public Map getData()
+   {
+      return new DataView();
+   }
+
+   public ScalarArray keys()
+   {
+      return new CollectionWrapper(getData().keySet());
+   }
+
+   public void remove(Scalar value)
+   {
+      int x = 0;
+      while (x < table.length)
+      {
+         if (table[x] != null && table[x].full && value.sameAs(table[x]))
+         {
+            delete(x);    /* the next entry (if any) moves into slot x */
+         }
+         else
+         {
+            x++;
+         }
+      }
+   }
+
+   public String toString()
+   {
+      return getData().toString();
+   }
+
+   /** a java.util.Map view of the live entries in this hash */
+   private class DataView extends AbstractMap
+   {
+      public Set entrySet()
+      {
+         return new AbstractSet()
+         {
+            public Iterator iterator()
+            {
+               return new EntryIterator();
+            }
+
+            public int size()
+            {
+               return live;
+            }
+         };
+      }
+
+      public int size()
+      {
+         return live;
+      }
+
+      public Object get(Object key)
+      {
+         String temp  = key + "";
+         int    index = find(temp, spread(temp.hashCode()));
+         return index >= 0 && table[index].full ? table[index] : null;
+      }
+
+      public boolean containsKey(Object key)
+      {
+         return get(key) != null;
+      }
+
+      public Object put(Object key, Object value)
+      {
+         Scalar temp = getAt(SleepUtils.getScalar(key + ""));
+         Object prev = SleepUtils.isEmptyScalar(temp) ? null : SleepUtils.getScalar(temp);
+         temp.setValue((Scalar)value);
+         return prev;
+      }
+
+      public Object remove(Object key)
+      {
+         String temp  = key + "";
+         int    index = find(temp, spread(temp.hashCode()));
+
+         if (index < 0)
+            return null;
+
+         Slot entry = table[index];
+         boolean full = entry.full;
+         delete(index);
+         return full ? entry : null;
+      }
+   }
+
+   /** walks the live entries of the table */
+   private class EntryIterator implements Iterator
+   {
+      protected int   next     = 0;
+      protected int   last     = -1;
+      protected int   expected = modCount;
+
+      private void check()
+      {
+         if (expected != modCount)
+            throw new ConcurrentModificationException();
+      }
+
+      public boolean hasNext()
+      {
+         check();
+
+         while (next < table.length && (table[next] == null || !table[next].full))
+            next++;
+
+         return next < table.length;
+      }
+
+      public Object next()
+      {
+         if (!hasNext())
+            throw new NoSuchElementException();
+
+         last = next;
+         next++;
+
+         final Slot entry = table[last];
+         return new Map.Entry()
+         {
+            public Object getKey()
+            {
+               return entry.key;
+            }
+
+            public Object getValue()
+            {
+               return entry;
+            }
+
+            public Object setValue(Object value)
+            {
+               Scalar prev = SleepUtils.getScalar(entry);
+               entry.setValue((Scalar)value);
+               return prev;
+            }
+
+            public String toString()
+            {
+               return entry.key + "=" + entry;
+            }
+         };
+      }
+
+      public void remove()
+      {
+         if (last < 0)
+            throw new IllegalStateException();
+
+         check();
+         delete(last);
+         next     = last;
+         last     = -1;
+         expected = modCount;
+      }
+   }
+}
@@ -0,0 +1,773 @@
+/* 
+ * Copyright (C) 2002-2012 Raphael Mudge (rsmudge@gmail.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package sleep.engine.types;
+
+import java.util.*;
+
+import sleep.runtime.*;
+
+/** A Sleep array of int, long, or double values kept in a primitive Java array (see &amp;ints, &amp;longs, and &amp;doubles).
+ *  A number takes 4 or 8 bytes instead of a Scalar and a ScalarType object.  Scalars are made when a script reads an element 
+ *  out and the Scalar handed out for an element writes its new value back into the array when it is assigned to (so 
+ *  <code>@a[$i] += 1</code> and assigning to the variable of a foreach loop work as they do with any other array).
+ *
+ *  <p>The first time a value of some other type is stored (a string, a double in an int array, $null, etc.) the elements are
+ *  moved into a plain array of Scalars and the array works like any other array from then on.  Taking a &amp;sublist of a 
+ *  primitive array does the same since a sublist is a view into its parent.</p>
+ *
+ *  <p>Elements are taken off the front by moving the start of the array, so push, pop, and shift are O(1) (amortized). 
+ *  Reading past the end of a primitive array doesn't add an empty element to it, assigning to that element does.</p>
+ */
+public class PrimitiveArray implements ScalarArray
+{
+   /** an array of ints */
+   public static final int INT    = 0;
+
+   /** an array of longs */
+   public static final int LONG   = 1;
+
+   /** an array of doubles */
+   public static final int DOUBLE = 2;
+
+   protected int      kind;
+   protected int[]    ints;
+   protected long[]   longs;
+   protected double[] doubles;
+
+   protected int      head     = 0;   /* the index of the first element within the primitive array */
+   protected int      size     = 0;
+   protected int      modCount = 0;   /* structural changes, checked by iterators and the Scalars handed out for elements */
+
+   /** once a value of some other kind is stored the elements live here, as Scalars, for good */
+   protected MyArrayList spilled   = null;
+   protected ListContainer container = null;
+
+   /** creates a primitive array of the specified kind (INT, LONG, or DOUBLE) holding size zeroes */
+   public PrimitiveArray(int _kind, int _size)
+   {
+      kind = _kind;
+      allocate(_size < 8 ? 8 : _size);
+      size = _size;
+   }
+
+   /** the kind of values this array holds: INT, LONG, or DOUBLE */
+   public int getKind()
+   {
+      return kind;
+   }
+
+   /** returns true while the values are still kept in a primitive array */
+   public boolean isPrimitive()
+   {
+      return spilled == null;
+   }
+
+   /** returns a new primitive array with a copy of these values */
+   public PrimitiveArray copy()
+   {
+      if (spilled != null)
+         throw new IllegalStateException("array is not primitive");
+
+      PrimitiveArray temp = new PrimitiveArray(kind, 0);
+      temp.allocate(size < 8 ? 8 : size);
+      System.arraycopy(storage(), head, temp.storage(), 0, size);
+      temp.size = size;
+      return temp;
+   }
+
+   //
+   // the primitive storage
+   //
+
+   private void allocate(int capacity)
+   {
+      switch (kind)
+      {
+         case INT:
+            ints = new int[capacity];
+            break;
+         case LONG:
+            longs = new long[capacity];
+            break;
+         default:
+            doubles = new double[capacity];
+      }
+   }
+
+   private Object storage()
+   {
+      return kind == INT ? (Object)ints : (kind == LONG ? (Object)longs : (Object)doubles);
+   }
+
+   private int capacity()
+   {
+      return kind == INT ? ints.length : (kind == LONG ? longs.length : doubles.length);
+   }
+
+   /** moves the elements into a new primitive array of the specified capacity, starting at the specified index */
+   private void relocate(int capacity, int start)
+   {
+      Object old = storage();
+      allocate(capacity);
+      System.arraycopy(old, head, storage(), start, size);
+      head = start;
+   }
+
+   /** makes room for one more element at the end */
+   private void roomAtEnd()
+   {
+      int capacity = capacity();
+      if (head + size < capacity)
+         return;
+
+      if (size < capacity / 2)
+      {
+         relocate(capacity, 0);
+      }
+      else
+      {
+         relocate(capacity * 2, 0);
+      }
+   }
+
+   /** makes room for one more element at the front */
+   private void roomAtFront()
+   {
+      if (head > 0)
+         return;
+
+      int capacity = capacity();
+      if (size < capacity / 2)
+      {
+         relocate(capacity, (capacity - size) / 2);
+      }
+      else
+      {
+         relocate(capacity * 2, capacity - size);
+      }
+   }
+
+   /** returns true if the scalar holds a value this array can keep */
+   private boolean fits(Scalar value)
+   {
+      ScalarType type = value.getActualValue();
+
+      if (type == null || value.getArray() != null || value.getHash() != null)
+         return false;
+
+      switch (kind)
+      {
+         case INT:
+            return type.getType() == IntValue.class;
+         case LONG:
+            return type.getType() == LongValue.class;
+         default:
+            return type.getType() == DoubleValue.class;
+      }
+   }
+
+   /** stores a value (that fits) at the specified index */
+   private void put(int index, ScalarType value)
+   {
+      switch (kind)
+      {
+         case INT:
+            ints[head + index] = value.intValue();
+            break;
+         case LONG:
+            longs[head + index] = value.longValue();
+            break;
+         default:
+            doubles[head + index] = value.doubleValue();
+      }
+   }
+
+   /** returns the value at the specified index */
+   private ScalarType valueAt(int index)
+   {
+      switch (kind)
+      {
+         case INT:
+            return IntValue.valueOf(ints[head + index]);
+         case LONG:
+            return LongValue.valueOf(longs[head + index]);
+         default:
+            return new DoubleValue(doubles[head + index]);
+      }
+   }
+
+   /** returns the value at the specified index as a double (for bulk operations like &amp;sum) */
+   public double doubleAt(int index)
+   {
+      if (spilled != null)
+         return ((Scalar)spilled.get(index)).doubleValue();
+
+      if (index < 0 || index >= size)
+         throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+
+      switch (kind)
+      {
+         case INT:
+            return (double)ints[head + index];
+         case LONG:
+            return (double)longs[head + index];
+         default:
+            return doubles[head + index];
+      }
+   }
+
+   /** returns a Scalar with a copy of the value at the specified index */
+   private Scalar scalarAt(int index)
+   {
+      Scalar temp = new Scalar();
+      temp.setValue(valueAt(index));
+      return temp;
+   }
+
+   private void checkIndex(int index, int max)
+   {
+      if (index < 0 || index > max)
+         throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+   }
+
+   /** moves the elements into a plain array of Scalars.  the element being assigned to (if any) goes in as itself */
+   private void spill(Element cause)
+   {
+      MyArrayList list = new MyArrayList();
+      for (int x = 0; x < size; x++)
+      {
+         list.add(cause != null && cause.index == x ? (Scalar)cause : scalarAt(x));
+      }
+
+      if (cause != null && cause.index == size)
+      {
+         list.add(cause);
+      }
+
+      spilled   = list;
+      container = new ListContainer(list);
+      ints      = null;
+      longs     = null;
+      doubles   = null;
+   }
+
+   //
+   // the ScalarArray interface
+   //
+
+   public Scalar pop()
+   {
+      if (spilled != null)
+         return container.pop();
+
+      checkIndex(size - 1, size - 1);
+
+      Scalar value = scalarAt(size - 1);
+      size--;
+      modCount++;
+      return value;
+   }
+
+   public Scalar push(Scalar value)
+   {
+      if (spilled == null && fits(value))
+      {
+         roomAtEnd();
+         put(size, value.getActualValue());
+         size++;
+         modCount++;
+         return value;
+      }
+
+      if (spilled == null)
+         spill(null);
+
+      return container.push(value);
+   }
+
+   public int size()
+   {
+      return spilled != null ? spilled.size() : size;
+   }
+
+   public Scalar getAt(int index)
+   {
+      if (spilled != null)
+         return container.getAt(index);
+
+      if (index >= size)
+      {
+         /* reading past the end adds an empty element, the same as ScalarArray.  an empty value doesn't fit here */
+         spill(null);
+         return container.getAt(index);
+      }
+
+      Element temp = new Element(index);
+      temp.load(valueAt(index));
+      return temp;
+   }
+
+   public Iterator scalarIterator()
+   {
+      if (spilled != null)
+         return container.scalarIterator();
+
+      return new PrimitiveIterator(0);
+   }
+
+   public Scalar add(Scalar value, int index)
+   {
+      if (spilled == null && fits(value))
+      {
+         checkIndex(index, size);
+
+         if (index == 0)
+         {
+            roomAtFront();
+            head--;
+         }
+         else
+         {
+            roomAtEnd();
+            Object temp = storage();
+            System.arraycopy(temp, head + index, temp, head + index + 1, size - index);
+         }
+
+         size++;
+         modCount++;
+         put(index, value.getActualValue());
+         return value;
+      }
+
+      if (spilled == null)
+         spill(null);
+
+      return container.add(value, index);
+   }
+
+   public void remove(Scalar value)
+   {
+      SleepUtils.removeScalar(scalarIterator(), value);
+   }
+
+   public Scalar remove(int index)
+   {
+      if (spilled != null)
+         return container.remove(index);
+
+      checkIndex(index, size - 1);
+
+      Scalar value = scalarAt(index);
+
+      if (index == 0)
+      {
+         head++;
+      }
+      else
+      {
+         Object temp = storage();
+         System.arraycopy(temp, head + index + 1, temp, head + index, size - index - 1);
+      }
+
+      size--;
+      modCount++;
+
+      if (size == 0)
+         head = 0;
+
+      return value;
+   }
+
+   public void sort(Comparator compare)
+   {
+      if (spilled != null)
+      {
+         container.sort(compare);
+         return;
+      }
+
+      Scalar[] temp = new Scalar[size];
+      for (int x = 0; x < size; x++)
+      {
+         temp[x] = scalarAt(x);
+      }
+
+      Arrays.sort(temp, compare);
+
+      for (int x = 0; x < size; x++)
+      {
+         put(x, temp[x].getActualValue());
+      }
+
+      /* the elements handed out no longer match their index */
+      modCount++;
+   }
+
+   /** sorts the values in ascending order the way &amp;sortn (byLong) or &amp;sortd would.  returns false (and leaves the
+       array alone) if a primitive sort can't promise the same order as those comparators, e.g. because of NaN, -0.0, or 
+       values they would treat as equal */
+   public boolean sortNumbers(boolean byLong)
+   {
+      if (spilled != null || size < 2)
+         return spilled == null;
+
+      if (kind == DOUBLE)
+      {
+         for (int x = head; x < head + size; x++)
+         {
+            if (byLong || Double.isNaN(doubles[x]) || (doubles[x] == 0.0 && 1.0 / doubles[x] < 0))
+               return false;
+         }
+
+         Arrays.sort(doubles, head, head + size);
+         modCount++;
+         return true;
+      }
+
+      if (kind == INT && !byLong)
+      {
+         Arrays.sort(ints, head, head + size);
+         modCount++;
+         return true;
+      }
+
+      /* &sortn compares (int)(a - b), that is only a proper ordering when the values are less than 2^31 apart.  &sortd
+         compares longs as doubles which is only exact up to 2^53 */
+      long min = Long.MAX_VALUE, max = Long.MIN_VALUE;
+      for (int x = 0; x < size; x++)
+      {
+         long value = kind == INT ? ints[head + x] : longs[head + x];
+         min = Math.min(min, value);
+         max = Math.max(max, value);
+      }
+
+      if (byLong && (max - min < 0 || max - min > Integer.MAX_VALUE))
+         return false;
+
+      if (!byLong && (min < -(1L << 53) || max > (1L << 53)))
+         return false;
+
+      if (kind == INT)
+      {
+         Arrays.sort(ints, head, head + size);
+      }
+      else
+      {
+         Arrays.sort(longs, head, head + size);
+      }
+
+      modCount++;
+      return true;
+   }
+
+   /** returns the sum of the values as a double (adding them in order, like &amp;sum) */
+   public double sum()
+   {
+      double result = 0.0;
+
+      if (spilled != null)
+      {
+         for (int x = 0; x < spilled.size(); x++)
+         {
+            result += doubleAt(x);
+         }
+      }
+      else if (kind == INT)
+      {
+         for (int x = head; x < head + size; x++)
+         {
+            result += ints[x];
+         }
+      }
+      else if (kind == LONG)
+      {
+         for (int x = head; x < head + size; x++)
+         {
+            result += longs[x];
+         }
+      }
+      else
+      {
+         for (int x = head; x < head + size; x++)
+         {
+            result += doubles[x];
+         }
+      }
+
+      return result;
+   }
+
+   public ScalarArray sublist(int start, int end)
+   {
+      if (spilled == null)
+         spill(null);
+
+      return container.sublist(start, end);
+   }
+
+   public String toString()
+   {
+      if (spilled != null)
+         return container.toString();
+
+      StringBuffer buffer = new StringBuffer("[");
+      for (int x = 0; x < size; x++)
+      {
+         if (x > 0)
+            buffer.append(", ");
+
+         buffer.append(valueAt(x).toString());
+      }
+      buffer.append("]");
+
+      return buffer.toString();
+   }
+
+   //
+   // the Scalar for an element and the iterator
+   //
+
+   /** the Scalar handed out for an element.  assigning to it stores the new value in the array, as long as the array hasn't
+       been changed (elements added or removed) since it was handed out */
+   private class Element extends Scalar
+   {
+      protected int     index;
+      protected int     mods     = modCount;
+      protected boolean detached = false;
+
+      public Element(int _index)
+      {
+         index = _index;
+      }
+
+      protected void load(ScalarType _value)
+      {
+         value = _value;
+      }
+
+      public void setValue(ScalarType _value)
+      {
+         super.setValue(_value);
+         written();
+      }
+
+      public void setValue(ScalarArray _array)
+      {
+         super.setValue(_array);
+         written();
+      }
+
+      public void setValue(ScalarHash _hash)
+      {
+         super.setValue(_hash);
+         written();
+      }
+
+      private void written()
+      {
+         if (detached)
+            return;
+
+         if (spilled != null || mods != modCount || index > size)
+         {
+            detached = true;
+         }
+         else if (!fits(this))
+         {
+            spill(this);
+            detached = true;
+         }
+         else if (index == size)
+         {
+            roomAtEnd();
+            put(size, value);
+            size++;
+            modCount++;
+            mods = modCount;
+         }
+         else
+         {
+            put(index, value);
+         }
+      }
+   }
+
+   private class PrimitiveIterator implements ListIterator
+   {
+      protected int          index;
+      protected int          last = -1;
+      protected int          mods = modCount;
+      protected ListIterator delegate = null;
+
+      public PrimitiveIterator(int _index)
+      {
+         index = _index;
+      }
+
+      /** returns true once the array has moved its elements into a plain array of Scalars, the iterator continues there */
+      private boolean spilled()
+      {
+         if (delegate != null)
+            return true;
+
+         if (spilled == null)
+            return false;
+
+         /* pick up in the same place, with the same element as the one last returned */
+         if (last != -1 && last == index - 1)
+         {
+            delegate = spilled.listIterator(last);
+            delegate.next();
+         }
+         else if (last != -1 && last == index)
+         {
+            delegate = spilled.listIterator(index + 1);
+            delegate.previous();
+         }
+         else
+         {
+            delegate = spilled.listIterator(index);
+         }
+
+         return true;
+      }
+
+      private void checkSafety()
+      {
+         if (mods != modCount)
+         {
+            throw new ConcurrentModificationException("@array changed during iteration");
+         }
+      }
+
+      public boolean hasNext()
+      {
+         return spilled() ? delegate.hasNext() : index < size;
+      }
+
+      public boolean hasPrevious()
+      {
+         return spilled() ? delegate.hasPrevious() : index > 0;
+      }
+
+      public Object next()
+      {
+         if (spilled())
+            return delegate.next();
+
+         checkSafety();
+
+         if (index >= size)
+            throw new NoSuchElementException();
+
+         last = index;
+         index++;
+         return getAt(last);
+      }
+
+      public Object previous()
+      {
+         if (spilled())
+            return delegate.previous();
+
+         checkSafety();
+
+         if (index <= 0)
+            throw new NoSuchElementException();
+
+         index--;
+         last = index;
+         return getAt(last);
+      }
+
+      public int nextIndex()
+      {
+         return spilled() ? delegate.nextIndex() : index;
+      }
+
+      public int previousIndex()
+      {
+         return spilled() ? delegate.previousIndex() : index - 1;
+      }
+
+      public void remove()
+      {
+         if (spilled())
+         {
+            delegate.remove();
+            return;
+         }
+
+         if (last == -1)
+         {
+            throw new IllegalStateException("list is empty");
+         }
+
+         checkSafety();
+         PrimitiveArray.this.remove(last);
+
+         if (last < index)
+            index--;
+
+         last = -1;
+         mods = modCount;
+      }
+
+      public void set(Object o)
+      {
+         if (spilled())
+         {
+            delegate.set(o);
+            return;
+         }
+
+         if (last == -1)
+         {
+            throw new IllegalStateException("list is empty");
+         }
+
+         checkSafety();
+
+         if (fits((Scalar)o))
+         {
+            put(last, ((Scalar)o).getActualValue());
+         }
+         else
+         {
+            spill(null);
+            spilled();
+            delegate.set(o);
+         }
+      }
+
+      public void add(Object o)
+      {
+         if (spilled())
+         {
+            delegate.add(o);
+            return;
+         }
+
+         checkSafety();
+         PrimitiveArray.this.add((Scalar)o, index);
+         index++;
+         last = -1;
+         mods = modCount;
+      }
+   }
+}
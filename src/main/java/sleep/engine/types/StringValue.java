@@ -23,56 +23,217 @@ public class StringValue implements ScalarType
 {
    protected String value;
 
+   /** the numeric values of this string, worked out the first time one is asked for */
+   private transient Parsed parsed = null;
+
+   /** the empty string, Java hands out the same "" for every empty string already so sharing it is invisible to &is */
+   private static final StringValue empty = new StringValue("");
+
    public StringValue(String _value)
    {
       value = _value;
    }
 
+   /** returns a StringValue for the specified string, a shared one for the empty string.  other strings aren't shared,
+       objectValue() hands out the string itself and &is compares it by identity */
+   public static StringValue valueOf(String _value)
+   {
+      if (_value.length() == 0)
+         return empty;
+
+      return new StringValue(_value);
+   }
+
    public ScalarType copyValue()
    {
       return this;
    }
 
-   /** does nothing for now... */
-   private String numberOnlyString()
+   /** the int, long, and double values of a string.  the fields are final so a Parsed is safe to share between threads */
+   private static final class Parsed
    {
-      return value;
+      protected final int    ival;
+      protected final long   lval;
+      protected final double dval;
+
+      public Parsed(int _ival, long _lval, double _dval)
+      {
+         ival = _ival;
+         lval = _lval;
+         dval = _dval;
+      }
    }
 
-   public int intValue()
+   private static final Parsed ZERO = new Parsed(0, 0L, 0.0);
+
+   private Parsed parsed()
    {
-      try
+      Parsed temp = parsed;
+      if (temp == null)
+      {
+         temp   = parse(toString());
+         parsed = temp;
+      }
+      return temp;
+   }
+
+   /** works out the values Integer.parseInt, Long.parseLong, and Double.parseDouble would give (0 where they would throw an
+       exception) without throwing any exceptions for the common cases */
+   private static Parsed parse(String text)
+   {
+      int len = text.length();
+
+      for (int x = 0; x < len; x++)
       {
-         return Integer.parseInt(numberOnlyString());
+         if (text.charAt(x) > 127)
+            return parseSlow(text);    /* parseInt/parseLong take digits from other scripts */
       }
-      catch (Exception ex)
+
+      /* an integer: [+-]?[0-9]+ accumulated negatively the way Long.parseLong does it */
+      boolean negative = len > 0 && text.charAt(0) == '-';
+      int     x        = len > 0 && (negative || text.charAt(0) == '+') ? 1 : 0;
+
+      if (x < len)
       {
-         return 0;
+         long    limit    = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+         long    result   = 0;
+         boolean overflow = false;
+
+         while (x < len)
+         {
+            int digit = text.charAt(x) - '0';
+            if (digit < 0 || digit > 9)
+               break;
+
+            if (result < limit / 10 || result * 10 < limit + digit)
+               overflow = true;
+            else if (!overflow)
+               result = result * 10 - digit;
+
+            x++;
+         }
+
+         if (x == len)
+         {
+            if (overflow)
+               return new Parsed(0, 0L, Double.parseDouble(text));
+
+            long lval = negative ? result : -result;
+            int  ival = lval >= Integer.MIN_VALUE && lval <= Integer.MAX_VALUE ? (int)lval : 0;
+            return new Parsed(ival, lval, negative && lval == 0 ? -0.0 : (double)lval);
+         }
       }
+
+      /* anything else is only a double, Double.parseDouble ignores surrounding whitespace */
+      int start = 0;
+      int end   = len;
+
+      while (start < end && text.charAt(start) <= ' ')
+         start++;
+
+      while (end > start && text.charAt(end - 1) <= ' ')
+         end--;
+
+      if (isDecimal(text, start, end))
+         return new Parsed(0, 0L, Double.parseDouble(text));
+
+      /* NaN, Infinity, and hex floating point literals */
+      int first = start < end && (text.charAt(start) == '-' || text.charAt(start) == '+') ? start + 1 : start;
+      if (first < end && (text.charAt(first) == 'N' || text.charAt(first) == 'I' || (text.charAt(first) == '0' && first + 1 < end && (text.charAt(first + 1) == 'x' || text.charAt(first + 1) == 'X'))))
+         return parseSlow(text);
+
+      return ZERO;
    }
 
-   public long longValue()
+   /** true if the text between start and end is [+-]?(digits(.digits?)?|.digits)([eE][+-]?digits)?[fFdD]? */
+   private static boolean isDecimal(String text, int start, int end)
    {
-      try
+      int x      = start;
+      int digits = 0;
+
+      if (x < end && (text.charAt(x) == '-' || text.charAt(x) == '+'))
+         x++;
+
+      while (x < end && Character.isDigit(text.charAt(x)))
       {
-         return Long.parseLong(numberOnlyString());
+         x++;
+         digits++;
       }
-      catch (Exception ex)
+
+      if (x < end && text.charAt(x) == '.')
       {
-         return 0L;
+         x++;
+         while (x < end && Character.isDigit(text.charAt(x)))
+         {
+            x++;
+            digits++;
+         }
+      }
+
+      if (digits == 0)
+         return false;
+
+      if (x < end && (text.charAt(x) == 'e' || text.charAt(x) == 'E'))
+      {
+         x++;
+         if (x < end && (text.charAt(x) == '-' || text.charAt(x) == '+'))
+            x++;
+
+         int exponent = x;
+         while (x < end && Character.isDigit(text.charAt(x)))
+            x++;
+
+         if (x == exponent)
+            return false;
       }
+
+      if (x < end && "fFdD".indexOf(text.charAt(x)) > -1)
+         x++;
+
+      return x == end;
    }
 
-   public double doubleValue()
+   /** the values the hard way, for strings the scanner doesn't handle */
+   private static Parsed parseSlow(String text)
    {
+      int    ival = 0;
+      long   lval = 0L;
+      double dval = 0.0;
+
       try
       {
-         return Double.parseDouble(numberOnlyString());
+         ival = Integer.parseInt(text);
       }
-      catch (Exception ex)
+      catch (Exception ex) { }
+
+      try
       {
-         return 0.0;
+         lval = Long.parseLong(text);
       }
+      catch (Exception ex) { }
+
+      try
+      {
+         dval = Double.parseDouble(text);
+      }
+      catch (Exception ex) { }
+
+      return new Parsed(ival, lval, dval);
+   }
+
+   public int intValue()
+   {
+      return parsed().ival;
+   }
+
+   public long longValue()
+   {
+      return parsed().lval;
+   }
+
+   public double doubleValue()
+   {
+      return parsed().dval;
    }
 
    public String toString()
@@ -82,7 +243,7 @@ public class StringValue implements ScalarType
 
    public Object objectValue()
    {
-      return value;
+      return toString();
    }
 
    public Class getType() { return this.getClass(); }
@@ -32,6 +32,9 @@ public class CodeGenerator implements ParserConstants
    protected Block CURRENT_BLOCK;
    protected Stack BACKUP_BLOCKS;
 
+   protected LocalScope CURRENT_SCOPE; /* local variables of the closure body we're generating code for */
+   protected Stack      BACKUP_SCOPES;
+
    protected GeneratedSteps factory; /* allow specification of a factory for generating steps */
    protected Parser         parser;
 
@@ -50,8 +53,26 @@ public class CodeGenerator implements ParserConstants
       escape_constants.put(c+"", value);
    }
 
+   /** tracks the local variables declared and the variables accessed within the body of a closure */
+   protected static class LocalScope
+   {
+      public Set  names = new LinkedHashSet();
+      public List gets  = new LinkedList(); /* the Get and foreach (Iterate) steps that may refer to a local */
+   }
+
    public Block getRunnableBlock()
    {
+      if (CURRENT_SCOPE != null && BACKUP_SCOPES.isEmpty())
+      {
+         if (BlockOptimizer.isEnabled())
+         {
+            BlockOptimizer.optimize(CURRENT_BLOCK);
+         }
+
+         resolveScope(CURRENT_SCOPE, CURRENT_BLOCK);
+         CURRENT_SCOPE = null;
+      }
+
       return CURRENT_BLOCK;
    }
 
@@ -59,6 +80,100 @@ public class CodeGenerator implements ParserConstants
    {
       CURRENT_BLOCK.add(n);
       n.setInfo(token.getHint());
+
+      if (n instanceof Get && CURRENT_SCOPE != null)
+      {
+         String name = ((Get)n).getName();
+         if (isArgumentName(name))
+         {
+            CURRENT_SCOPE.names.add(name);
+         }
+
+         CURRENT_SCOPE.gets.add(n);
+      }
+      else if (n instanceof Iterate && CURRENT_SCOPE != null && ((Iterate)n).getValue() != null)
+      {
+         CURRENT_SCOPE.gets.add(n);
+      }
+   }
+
+   /** returns true if the specified variable is one of the argument variables setup for each closure call */
+   private static boolean isArgumentName(String name)
+   {
+      if (name.equals("@_"))
+         return true;
+
+      if (name.length() < 2 || name.charAt(0) != '$')
+         return false;
+
+      for (int x = 1; x < name.length(); x++)
+      {
+         if (!Character.isDigit(name.charAt(x)))
+            return false;
+      }
+
+      return true;
+   }
+
+   /** starts the body of a closure, the local variables of the body are tracked separately from the enclosing code */
+   public void beginScope()
+   {
+      BACKUP_SCOPES.push(CURRENT_SCOPE);
+      CURRENT_SCOPE = new LocalScope();
+   }
+
+   /** ends the body of a closure.  the local variables of the body are assigned slots and the layout is attached to the body */
+   public Block endScope(Block body)
+   {
+      resolveScope(CURRENT_SCOPE, body);
+      CURRENT_SCOPE = (LocalScope)BACKUP_SCOPES.pop();
+      return body;
+   }
+
+   /** declares the variables named in a literal argument to &local within the current closure body */
+   private void declareLocals(String parms)
+   {
+      if (CURRENT_SCOPE == null || parms.length() < 2 || !Checkers.isLiteral(parms))
+         return;
+
+      String names[] = ParserUtilities.extract(parms).trim().split("\\s+");
+      for (int x = 0; x < names.length; x++)
+      {
+         if (names[x].length() > 1 && "$@%".indexOf(names[x].charAt(0)) != -1)
+         {
+            CURRENT_SCOPE.names.add(names[x]);
+         }
+      }
+   }
+
+   private void resolveScope(LocalScope scope, Block body)
+   {
+      if (scope.names.isEmpty())
+         return;
+
+      LocalSlots layout = new LocalSlots((String[])scope.names.toArray(new String[0]));
+      body.setLocalSlots(layout);
+
+      Iterator i = scope.gets.iterator();
+      while (i.hasNext())
+      {
+         Object next = i.next();
+
+         if (next instanceof Iterate)
+         {
+            Iterate step = (Iterate)next;
+            step.setSlots(layout, step.getKey() == null ? -1 : layout.indexOf(step.getKey()), layout.indexOf(step.getValue()));
+            continue;
+         }
+
+         Get step = (Get)next;
+         int slot = layout.indexOf(step.getName());
+
+         if (slot != -1)
+         {
+            step.setSlot(layout, slot);
+         }
+      }
    }
 
    public void backup()
@@ -71,6 +186,12 @@ public class CodeGenerator implements ParserConstants
    {
       Block temp = CURRENT_BLOCK;
       CURRENT_BLOCK = (Block)(BACKUP_BLOCKS.pop());
+
+      if (BlockOptimizer.isEnabled())
+      {
+         BlockOptimizer.optimize(temp);
+      }
+
       return temp;
    }
 
@@ -81,6 +202,9 @@ public class CodeGenerator implements ParserConstants
 
       CURRENT_BLOCK = new Block(parser.getName());
       BACKUP_BLOCKS = new Stack();
+
+      CURRENT_SCOPE = new LocalScope();
+      BACKUP_SCOPES = new Stack();
    }
 
    public CodeGenerator(Parser _parser)
@@ -704,8 +828,9 @@ public class CodeGenerator implements ParserConstants
            // [BIND PREDICATE FUNCTION]: "+temp[0]+" "+temp[1]);
            //
            backup();
+           beginScope();
            parseBlock(tokens[2]);
-           atom = factory.BindPredicate(strings[0], parsePredicate(ParserUtilities.extract(tokens[1])), restore());
+           atom = factory.BindPredicate(strings[0], parsePredicate(ParserUtilities.extract(tokens[1])), endScope(restore()));
            add(atom, tokens[0]);
            break; 
          case EXPR_BIND_FILTER:
@@ -714,8 +839,9 @@ public class CodeGenerator implements ParserConstants
            //
 
            backup();
+           beginScope();
            parseBlock(tokens[3]);
-           b = restore();
+           b = endScope(restore());
 
            atom = factory.BindFilter(strings[0], strings[1], b, strings[2]);
            add(atom, tokens[0]);
@@ -736,10 +862,19 @@ public class CodeGenerator implements ParserConstants
            }
 
            Block nameBlock = restore();
+
+           if (LazyBlock.isEnabled() && strings[0].equals("sub"))
+           {
+              /* the body is compiled when the sub is first called */
+              atom = factory.Bind(strings[0], nameBlock, new LazyBlock(parser.getName(), tokens[2], parser.getImportManager(), factory));
+              add(atom, tokens[0]);
+              break;
+           }
  
            backup();
+           beginScope();
            parseBlock(tokens[2]);
-           atom = factory.Bind(strings[0], nameBlock, restore());
+           atom = factory.Bind(strings[0], nameBlock, endScope(restore()));
            add(atom, tokens[0]);
            break; 
          case EXPR_TRYCATCH: 
@@ -780,10 +915,11 @@ public class CodeGenerator implements ParserConstants
            break;
          case IDEA_BLOCK:  // turns our block into a scalar :)
            backup();
+           beginScope();
 
            parseBlock(ParserUtilities.extract(tokens[0]));
 
-           atom    = factory.CreateClosure(restore());
+           atom    = factory.CreateClosure(endScope(restore()));
            add(atom, tokens[0]);
            break;
          case IDEA_FUNC: // implemented 
@@ -839,6 +975,12 @@ public class CodeGenerator implements ParserConstants
                  add(atom, tokens[0]);
               }
 
+              /* variables declared with a literal call to &local get a slot in the enclosing closure */
+              if (strings[0].equals("&local"))
+              {
+                 declareLocals(ParserUtilities.extract(strings[1]).trim());
+              }
+
               parseParameters(ParserUtilities.extract(tokens[1]));
 
               atom = factory.Call(strings[0]);
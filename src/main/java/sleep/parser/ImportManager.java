@@ -63,7 +63,9 @@ public class ImportManager
 
        if (clas.equals("*"))
        {
-          imports.add(pack);
+          /* each parser sharing this import manager imports the default packages again */
+          if (!imports.contains(pack))
+             imports.add(pack);
        }
        else if (pack == null)
        {
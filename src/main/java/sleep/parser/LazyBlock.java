@@ -0,0 +1,205 @@
+/* 
+ * Copyright (C) 2002-2012 Raphael Mudge (rsmudge@gmail.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package sleep.parser;
+
+import java.util.*;
+
+import sleep.engine.*;
+import sleep.error.*;
+import sleep.runtime.*;
+
+/** The body of a subroutine that isn't compiled until it is first used.  With lazy compilation on, the code generator keeps
+ *  only the text (and first line) of each sub body and binds the sub to one of these.  The body is lexed, parsed, and turned
+ *  into steps the first time the sub is called (or the first time anything looks at its steps).  Scripts with lots of subs
+ *  that are never called load faster and take less memory.
+ *
+ *  <p>Syntax errors in a sub body aren't found when the script is loaded.  Calling the sub fires a warning with the errors
+ *  (and flags them, see &checkError) instead.  The body sees the imports of the whole script, including those made after the
+ *  sub.</p>
+ *
+ *  <p>Lazy compilation is off by default.  Turn it on with -Dsleep.parser.lazy=true or setEnabled(true) before scripts are
+ *  compiled.</p>
+ */
+public class LazyBlock extends Block
+{
+   protected static boolean enabled = System.getProperty("sleep.parser.lazy", "false").equals("true");
+
+   /** returns true if sub bodies are compiled when they're first used */
+   public static boolean isEnabled()
+   {
+      return enabled;
+   }
+
+   /** turns lazy compilation of sub bodies on or off.  only scripts compiled after this call are affected */
+   public static void setEnabled(boolean _enabled)
+   {
+      enabled = _enabled;
+   }
+
+   /** the text of the body (null once it is compiled) */
+   protected Token          body;
+   protected ImportManager  imports;
+   protected GeneratedSteps factory;
+
+   /** the syntax errors in the body (null if there are none) */
+   protected YourCodeSucksException errors = null;
+
+   /** true once the body is compiled */
+   protected volatile boolean ready = false;
+
+   /** true while the body is compiled, the code generator calls back into this block */
+   private boolean working = false;
+
+   public LazyBlock(String _src, Token _body, ImportManager _imports, GeneratedSteps _factory)
+   {
+      super(_src);
+      body    = _body;
+      imports = _imports;
+      factory = _factory;
+   }
+
+   /** returns true if the body of this block has been compiled */
+   public boolean isResolved()
+   {
+      return ready;
+   }
+
+   /** compiles the body of this block (if it isn't compiled already) */
+   public void resolve()
+   {
+      if (!ready)
+         generate();
+   }
+
+   /** returns the syntax errors in the body of this block (null if there are none).  compiles the body if necessary */
+   public YourCodeSucksException getErrors()
+   {
+      resolve();
+      return errors;
+   }
+
+   private synchronized void generate()
+   {
+      if (ready || working)
+         return;
+
+      working = true;
+
+      /* subs sharing an import manager may compile at the same time, the import manager isn't safe for that */
+      synchronized (imports)
+      {
+         try
+         {
+            Parser parser = new Parser(source, body.toString(), imports);
+            parser.setCodeFactory(factory);
+
+            CodeGenerator codegen = new CodeGenerator(parser, factory);
+
+            /* generate the steps into this block, the same as parsing the body of a sub the eager way */
+            codegen.BACKUP_BLOCKS.push(codegen.CURRENT_BLOCK);
+            codegen.CURRENT_BLOCK = this;
+
+            codegen.beginScope();
+            codegen.parseBlock(body);
+            codegen.endScope(codegen.restore());
+
+            if (parser.hasErrors())
+            {
+               errors = new YourCodeSucksException(parser.errors);
+
+               first  = null;
+               last   = null;
+               locals = null;
+            }
+         }
+         finally
+         {
+            body    = null;
+            imports = null;
+            factory = null;
+            working = false;
+            ready   = true;
+         }
+      }
+   }
+
+   public Scalar evaluate(ScriptEnvironment environment)
+   {
+      resolve();
+
+      if (errors != null)
+      {
+         Iterator i = errors.getErrors().iterator();
+         while (i.hasNext())
+         {
+            SyntaxError error = (SyntaxError)i.next();
+            environment.getScriptInstance().fireWarning(error.getDescription() + ": " + error.getCodeSnippet().trim(), error.getLineNumber());
+         }
+
+         environment.flagError(errors);
+         return SleepUtils.getEmptyScalar();
+      }
+
+      return super.evaluate(environment);
+   }
+
+   public LocalSlots getLocalSlots()
+   {
+      resolve();
+      return super.getLocalSlots();
+   }
+
+   public String toString(String prefix)
+   {
+      resolve();
+      return super.toString(prefix);
+   }
+
+   public int getApproximateLineNumber()
+   {
+      resolve();
+      return super.getApproximateLineNumber();
+   }
+
+   public int getHighLineNumber()
+   {
+      resolve();
+      return super.getHighLineNumber();
+   }
+
+   public int getLowLineNumber()
+   {
+      resolve();
+      return super.getLowLineNumber();
+   }
+
+   /** a compiled script is saved as an ordinary block */
+   protected Object writeReplace()
+   {
+      resolve();
+
+      Block temp = new Block(source);
+      for (Step step = first; step != null; step = step.next)
+      {
+         temp.add(step);
+      }
+      temp.setLocalSlots(locals);
+
+      return temp;
+   }
+}
@@ -0,0 +1,263 @@
+/* 
+ * Copyright (C) 2002-2012 Raphael Mudge (rsmudge@gmail.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package sleep.runtime;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.security.MessageDigest;
+
+import sleep.engine.Block;
+
+/** A cache of compiled scripts used by the ScriptLoader.  Entries are keyed by a hash of the script name and text, so a script
+ *  that changes gets a new entry and an unchanged script loaded again finds the old one.  The cache keeps the most recently used
+ *  entries within a limit on the number of entries and/or the weight of the entries (the length of their source text).  If
+ *  several threads miss on the same script at once only one of them compiles it, the others wait for its result.
+ *
+ *  <p>Turn the cache on with ScriptLoader.setGlobalCache, or with -Dsleep.cache.size=N (entries) and/or
+ *  -Dsleep.cache.weight=N (characters of source).</p>
+ */
+public class BlockCache
+{
+   /** a compiled script and its weight */
+   private static class Entry
+   {
+      protected Block block;
+      protected long  weight;
+
+      public Entry(Block _block, long _weight)
+      {
+         block  = _block;
+         weight = _weight;
+      }
+   }
+
+   protected int  maxEntries;
+   protected long maxWeight;
+
+   /** the entries, least recently used first.  guarded by itself */
+   private final LinkedHashMap entries  = new LinkedHashMap(64, 0.75f, true);
+   private long                weight   = 0;
+
+   /** compiles in progress, a key maps to the FutureTask compiling it */
+   private final ConcurrentHashMap inflight = new ConcurrentHashMap();
+
+   private final LongAdder hits      = new LongAdder();
+   private final LongAdder misses    = new LongAdder();
+   private final LongAdder evictions = new LongAdder();
+
+   /** creates a cache that holds up to maxEntries compiled scripts with no more than maxWeight characters of source between
+       them.  0 means no limit. */
+   public BlockCache(int _maxEntries, long _maxWeight)
+   {
+      maxEntries = _maxEntries;
+      maxWeight  = _maxWeight;
+   }
+
+   /** returns the cache key for a script: a SHA-256 of its name and text (as hex) */
+   public static String key(String name, String code)
+   {
+      try
+      {
+         MessageDigest digest = MessageDigest.getInstance("SHA-256");
+         digest.update(name.getBytes("UTF-8"));
+         digest.update((byte)0);
+         digest.update(code.getBytes("UTF-8"));
+
+         byte[]       temp   = digest.digest();
+         StringBuffer result = new StringBuffer(temp.length * 2);
+
+         for (int x = 0; x < temp.length; x++)
+         {
+            result.append(Character.forDigit((temp[x] >> 4) & 0xF, 16));
+            result.append(Character.forDigit(temp[x] & 0xF, 16));
+         }
+
+         return result.toString();
+      }
+      catch (Exception ex)
+      {
+         throw new RuntimeException(ex);   /* every JVM has SHA-256 and UTF-8 */
+      }
+   }
+
+   /** returns the cached block for key, or null if there isn't one */
+   public Block get(String key)
+   {
+      synchronized (entries)
+      {
+         Entry temp = (Entry)entries.get(key);
+
+         if (temp != null)
+         {
+            hits.increment();
+            return temp.block;
+         }
+
+         return null;
+      }
+   }
+
+   /** returns the cached block for key.  on a miss the compiler is called (once, no matter how many threads miss at the same
+       time) and its result is cached with the specified weight.  an exception from the compiler is thrown to every thread
+       waiting on it and nothing is cached. */
+   public Block get(String key, long _weight, Callable compiler)
+   {
+      Block block = get(key);
+      if (block != null)
+         return block;
+
+      FutureTask task  = new FutureTask(compiler);
+      FutureTask other = (FutureTask)inflight.putIfAbsent(key, task);
+
+      try
+      {
+         if (other == null)
+         {
+            misses.increment();
+            task.run();
+            block = (Block)task.get();
+            put(key, block, _weight);
+         }
+         else
+         {
+            hits.increment();     /* someone else is compiling it, that's as good as a hit */
+            block = (Block)other.get();
+         }
+
+         return block;
+      }
+      catch (ExecutionException ex)
+      {
+         if (ex.getCause() instanceof RuntimeException)
+            throw (RuntimeException)ex.getCause();
+
+         if (ex.getCause() instanceof Error)
+            throw (Error)ex.getCause();
+
+         throw new RuntimeException(ex.getCause());
+      }
+      catch (InterruptedException ex)
+      {
+         Thread.currentThread().interrupt();
+         throw new RuntimeException(ex);
+      }
+      finally
+      {
+         if (other == null)
+            inflight.remove(key, task);
+      }
+   }
+
+   /** adds a block to the cache, evicting the least recently used entries if the cache is over its limits */
+   public void put(String key, Block block, long _weight)
+   {
+      synchronized (entries)
+      {
+         Entry old = (Entry)entries.put(key, new Entry(block, _weight));
+         weight += _weight - (old != null ? old.weight : 0);
+
+         Iterator i = entries.values().iterator();
+         while (entries.size() > 1 && ((maxEntries > 0 && entries.size() > maxEntries) || (maxWeight > 0 && weight > maxWeight)))
+         {
+            Entry eldest = (Entry)i.next();
+            i.remove();
+            weight -= eldest.weight;
+            evictions.increment();
+         }
+      }
+   }
+
+   /** removes the entry for key */
+   public void remove(String key)
+   {
+      synchronized (entries)
+      {
+         Entry old = (Entry)entries.remove(key);
+         if (old != null)
+            weight -= old.weight;
+      }
+   }
+
+   /** removes every entry (the statistics are kept) */
+   public void clear()
+   {
+      synchronized (entries)
+      {
+         entries.clear();
+         weight = 0;
+      }
+   }
+
+   /** returns a copy of the cache as a map of keys to blocks, least recently used first */
+   public Map getEntries()
+   {
+      synchronized (entries)
+      {
+         Map temp = new LinkedHashMap();
+         Iterator i = entries.entrySet().iterator();
+         while (i.hasNext())
+         {
+            Map.Entry entry = (Map.Entry)i.next();
+            temp.put(entry.getKey(), ((Entry)entry.getValue()).block);
+         }
+         return temp;
+      }
+   }
+
+   /** the number of compiled scripts in the cache */
+   public int size()
+   {
+      synchronized (entries)
+      {
+         return entries.size();
+      }
+   }
+
+   /** the weight (characters of source) of the compiled scripts in the cache */
+   public long getWeight()
+   {
+      synchronized (entries)
+      {
+         return weight;
+      }
+   }
+
+   /** the number of lookups that found a compiled script (or waited on another thread compiling it) */
+   public long getHits()
+   {
+      return hits.sum();
+   }
+
+   /** the number of lookups that had to compile the script */
+   public long getMisses()
+   {
+      return misses.sum();
+   }
+
+   /** the number of compiled scripts dropped to stay within the limits of the cache */
+   public long getEvictions()
+   {
+      return evictions.sum();
+   }
+
+   public String toString()
+   {
+      return "hits=" + getHits() + " misses=" + getMisses() + " evictions=" + getEvictions() + " size=" + size() + " weight=" + getWeight();
+   }
+}
@@ -0,0 +1,83 @@
+/* 
+ * Copyright (C) 2002-2012 Raphael Mudge (rsmudge@gmail.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package sleep.runtime;
+
+import java.util.*;
+
+/** The Hashtable used for the environment of a script (functions, operators, predicates, inline subs, etc.).  This table keeps
+ *  a version number that changes each time an entry is put or removed.  Steps use this version number to cache what they looked
+ *  up in the environment (i.e. the function for a call site) and to know when that cache is out of date.  Scripts will work with
+ *  any Hashtable as their environment, lookups just aren't cached unless it is an EnvironmentTable.
+ *
+ *  <p>Changes made through the keySet(), values(), or entrySet() views are not tracked.  Use put and remove.</p>
+ */
+public class EnvironmentTable extends Hashtable
+{
+   protected volatile int version = 0;
+
+   public EnvironmentTable()
+   {
+      super();
+   }
+
+   public EnvironmentTable(int initialCapacity)
+   {
+      super(initialCapacity);
+   }
+
+   /** returns the current version of this table */
+   public int getVersion()
+   {
+      return version;
+   }
+
+   /** returns the version of the specified environment or -1 if the environment does not keep a version */
+   public static int getVersion(Hashtable environment)
+   {
+      if (environment instanceof EnvironmentTable)
+         return ((EnvironmentTable)environment).getVersion();
+
+      return -1;
+   }
+
+   public synchronized Object put(Object key, Object value)
+   {
+      Object temp = super.put(key, value);
+      version++;
+      return temp;
+   }
+
+   public synchronized Object remove(Object key)
+   {
+      Object temp = super.remove(key);
+      version++;
+      return temp;
+   }
+
+   public synchronized void putAll(Map t)
+   {
+      super.putAll(t);
+      version++;
+   }
+
+   public synchronized void clear()
+   {
+      super.clear();
+      version++;
+   }
+}
@@ -0,0 +1,186 @@
+/* 
+ * Copyright (C) 2002-2012 Raphael Mudge (rsmudge@gmail.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package sleep.runtime;
+
+import java.util.*;
+
+import sleep.bridges.SleepClosure;
+
+/** The environment of a forked script instance.  Instead of copying the parent's environment (and making a new closure for
+ *  each subroutine in it, see ScriptInstance.makeSafe) this table starts out empty and looks in the parent for anything it
+ *  doesn't have.  A subroutine is copied for the fork the first time the fork looks it up.  Anything the fork puts or removes
+ *  stays in the fork.  Entries the fork hasn't looked up or changed show changes the parent makes after the fork.
+ *
+ *  <p>keySet(), entrySet(), values(), keys(), and elements() return a merged copy of the two tables.</p>
+ */
+public class ForkedEnvironment extends EnvironmentTable
+{
+   /** marks an entry removed in the fork */
+   private static final Object REMOVED = new Object();
+
+   protected Hashtable      parent;
+   protected ScriptInstance owner;
+
+   /** creates an environment for the specified script instance that starts out with the contents of parent */
+   public ForkedEnvironment(Hashtable _parent, ScriptInstance _owner)
+   {
+      parent = _parent;
+      owner  = _owner;
+   }
+
+   /** the version changes when this table or the parent changes.  -1 (no caching) if the parent doesn't keep a version */
+   public int getVersion()
+   {
+      int temp = EnvironmentTable.getVersion(parent);
+      return temp == -1 ? -1 : version + temp;
+   }
+
+   public synchronized Object get(Object key)
+   {
+      Object value = super.get(key);
+
+      if (value == REMOVED)
+         return null;
+
+      if (value == null)
+      {
+         value = parent.get(key);
+
+         if (value instanceof SleepClosure && key.toString().charAt(0) == '&')
+         {
+            /* the fork gets its own copy of a subroutine, same as makeSafe */
+            value = new SleepClosure(owner, ((SleepClosure)value).getRunnableCode());
+            super.put(key, value);
+         }
+      }
+
+      return value;
+   }
+
+   public Object getOrDefault(Object key, Object value)
+   {
+      Object temp = get(key);
+      return temp == null ? value : temp;
+   }
+
+   public synchronized boolean containsKey(Object key)
+   {
+      Object value = super.get(key);
+
+      if (value != null)
+         return value != REMOVED;
+
+      return parent.containsKey(key);
+   }
+
+   public synchronized Object remove(Object key)
+   {
+      Object temp = get(key);
+      super.put(key, REMOVED);
+      return temp;
+   }
+
+   public synchronized void clear()
+   {
+      super.clear();
+
+      Iterator i = new LinkedList(parent.keySet()).iterator();
+      while (i.hasNext())
+      {
+         super.put(i.next(), REMOVED);
+      }
+   }
+
+   /** returns a copy of what this table holds (its own entries over the parent's) */
+   protected synchronized Hashtable merged()
+   {
+      Hashtable temp = new Hashtable();
+
+      Iterator i = new LinkedList(parent.keySet()).iterator();
+      while (i.hasNext())
+      {
+         Object key = i.next();
+         if (super.get(key) == null)
+         {
+            Object value = get(key);
+            if (value != null)
+               temp.put(key, value);
+         }
+      }
+
+      i = super.entrySet().iterator();
+      while (i.hasNext())
+      {
+         Map.Entry entry = (Map.Entry)i.next();
+         if (entry.getValue() != REMOVED)
+            temp.put(entry.getKey(), entry.getValue());
+      }
+
+      return temp;
+   }
+
+   public int size()
+   {
+      return merged().size();
+   }
+
+   public boolean isEmpty()
+   {
+      return merged().isEmpty();
+   }
+
+   public boolean contains(Object value)
+   {
+      return merged().contains(value);
+   }
+
+   public boolean containsValue(Object value)
+   {
+      return merged().containsValue(value);
+   }
+
+   public Set keySet()
+   {
+      return merged().keySet();
+   }
+
+   public Set entrySet()
+   {
+      return merged().entrySet();
+   }
+
+   public Collection values()
+   {
+      return merged().values();
+   }
+
+   public Enumeration keys()
+   {
+      return merged().keys();
+   }
+
+   public Enumeration elements()
+   {
+      return merged().elements();
+   }
+
+   public String toString()
+   {
+      return merged().toString();
+   }
+}
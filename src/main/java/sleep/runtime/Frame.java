@@ -0,0 +1,137 @@
+/* 
+ * Copyright (C) 2002-2012 Raphael Mudge (rsmudge@gmail.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package sleep.runtime;
+
+import java.util.*;
+
+/** A frame of the operand stack of a script environment.  Frames are handed to bridges as a java.util.Stack, so this class is a 
+ *  Stack.  A frame belongs to one script environment and is only touched by the thread running that environment, so the common 
+ *  operations (push, pop, peek, get, remove, size, clear) are overriden here without the synchronization Vector adds to each call.
+ *  Everything else is inherited and works on the same storage. */
+public class Frame extends Stack
+{
+   public Frame()
+   {
+      super();
+   }
+
+   private void grow()
+   {
+      elementData = Arrays.copyOf(elementData, elementData.length < 8 ? 8 : elementData.length * 2);
+   }
+
+   public Object push(Object item)
+   {
+      if (elementCount == elementData.length)
+         grow();
+
+      elementData[elementCount++] = item;
+      modCount++;
+      return item;
+   }
+
+   public boolean add(Object item)
+   {
+      push(item);
+      return true;
+   }
+
+   public void addElement(Object item)
+   {
+      push(item);
+   }
+
+   public Object pop()
+   {
+      if (elementCount == 0)
+         throw new EmptyStackException();
+
+      Object item = elementData[--elementCount];
+      elementData[elementCount] = null;
+      modCount++;
+      return item;
+   }
+
+   public Object peek()
+   {
+      if (elementCount == 0)
+         throw new EmptyStackException();
+
+      return elementData[elementCount - 1];
+   }
+
+   public boolean empty()
+   {
+      return elementCount == 0;
+   }
+
+   public boolean isEmpty()
+   {
+      return elementCount == 0;
+   }
+
+   public int size()
+   {
+      return elementCount;
+   }
+
+   public Object get(int index)
+   {
+      if (index >= elementCount || index < 0)
+         throw new ArrayIndexOutOfBoundsException(index);
+
+      return elementData[index];
+   }
+
+   public Object elementAt(int index)
+   {
+      return get(index);
+   }
+
+   public Object remove(int index)
+   {
+      if (index >= elementCount || index < 0)
+         throw new ArrayIndexOutOfBoundsException(index);
+
+      Object item = elementData[index];
+      int    move = elementCount - index - 1;
+
+      if (move > 0)
+         System.arraycopy(elementData, index + 1, elementData, index, move);
+
+      elementData[--elementCount] = null;
+      modCount++;
+      return item;
+   }
+
+   public void clear()
+   {
+      for (int x = 0; x < elementCount; x++)
+      {
+         elementData[x] = null;
+      }
+
+      elementCount = 0;
+      modCount++;
+   }
+
+   public void removeAllElements()
+   {
+      clear();
+   }
+}
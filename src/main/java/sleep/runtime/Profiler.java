@@ -0,0 +1,367 @@
+/* 
+ * Copyright (C) 2002-2012 Raphael Mudge (rsmudge@gmail.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package sleep.runtime;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.io.*;
+
+/** Collects profiler statistics for a script (and the forks that share its metadata) when DEBUG_TRACE_CALLS or 
+ *  DEBUG_TRACE_PROFILE_ONLY is enabled.  Times are measured with System.nanoTime() and kept in LongAdder counters so threads
+ *  sharing a profiler don't contend with each other.
+ *
+ *  <p>Statistics are kept by function (self time, the time spent in the function minus the time spent in the functions it 
+ *  called), by call site (source file and line, inclusive time), by caller to callee edge (inclusive time), and as a call tree.
+ *  The call tree can be written out as collapsed stacks (one line per stack with its self time in nanoseconds) for flame graph 
+ *  tools.</p>
+ *
+ *  @see sleep.runtime.ScriptInstance#getProfiler()
+ */
+public class Profiler
+{
+   /** calls and time for a function, call site, or edge */
+   public static class Statistic implements Comparable
+   {
+      protected String    name;
+      protected LongAdder calls = new LongAdder();
+      protected LongAdder nanos = new LongAdder();
+
+      /** the live ScriptInstance.ProfilerStatistic for a function (null for call sites and edges) */
+      protected ScriptInstance.ProfilerStatistic view = null;
+
+      public Statistic(String _name)
+      {
+         name = _name;
+      }
+
+      /** the function, call site (source:line), or edge (caller -&gt; callee) this statistic is for */
+      public String getName()
+      {
+         return name;
+      }
+
+      /** the number of calls */
+      public long getCalls()
+      {
+         return calls.sum();
+      }
+
+      /** the time in nanoseconds */
+      public long getNanos()
+      {
+         return nanos.sum();
+      }
+
+      /** sorts by time, most time first */
+      public int compareTo(Object o)
+      {
+         long a = getNanos();
+         long b = ((Statistic)o).getNanos();
+         return a > b ? -1 : (a < b ? 1 : 0);
+      }
+
+      public String toString()
+      {
+         return (getNanos() / 1000000000.0) + "s " + getCalls() + " " + name;
+      }
+   }
+
+   /** a node of the call tree, one per distinct stack of function names */
+   private static class Node
+   {
+      protected String            name;
+      protected Node              parent;
+      protected ConcurrentHashMap children  = new ConcurrentHashMap();
+      protected LongAdder         self      = new LongAdder();
+      protected LongAdder         inclusive = new LongAdder();
+      protected LongAdder         calls     = new LongAdder();
+
+      public Node(String _name, Node _parent)
+      {
+         name   = _name;
+         parent = _parent;
+      }
+
+      public Node child(String function)
+      {
+         Node temp = (Node)children.get(function);
+         if (temp == null)
+         {
+            Node next = new Node(function, this);
+            temp = (Node)children.putIfAbsent(function, next);
+            if (temp == null)
+               temp = next;
+         }
+         return temp;
+      }
+   }
+
+   /** a call in progress on some thread */
+   private static class Frame
+   {
+      protected Node node;
+      protected long start;
+      protected long children;
+   }
+
+   /** the calls in progress on one thread */
+   private static class CallStack
+   {
+      protected Frame[] frames = new Frame[16];
+      protected int     depth  = 0;
+   }
+
+   protected Node              root      = new Node("<root>", null);
+   protected ConcurrentHashMap functions = new ConcurrentHashMap();
+   protected ConcurrentHashMap sites     = new ConcurrentHashMap();
+   protected LongAdder         total     = new LongAdder();
+
+   protected ThreadLocal stacks = new ThreadLocal()
+   {
+      protected Object initialValue()
+      {
+         return new CallStack();
+      }
+   };
+
+   private static Statistic getFunction(ConcurrentHashMap map, String key)
+   {
+      Statistic temp = (Statistic)map.get(key);
+      if (temp == null)
+      {
+         Statistic next = new Statistic(key);
+         next.view = new ScriptInstance.ProfilerStatistic();
+         next.view.functionName = key;
+
+         temp = (Statistic)map.putIfAbsent(key, next);
+         if (temp == null)
+            temp = next;
+      }
+      return temp;
+   }
+
+   /** marks the start of a call to the specified function on the current thread, each enter must be followed by an exit */
+   public void enter(String function)
+   {
+      CallStack stack  = (CallStack)stacks.get();
+      Node      parent = stack.depth == 0 ? root : stack.frames[stack.depth - 1].node;
+
+      if (stack.depth == stack.frames.length)
+         stack.frames = (Frame[])Arrays.copyOf(stack.frames, stack.depth * 2);
+
+      Frame frame = stack.frames[stack.depth];
+      if (frame == null)
+      {
+         frame = new Frame();
+         stack.frames[stack.depth] = frame;
+      }
+
+      frame.node     = parent.child(function);
+      frame.children = 0;
+      frame.start    = System.nanoTime();
+      stack.depth++;
+   }
+
+   /** marks the end of the current call on this thread.  the call was made from the specified source file and line */
+   public void exit(String source, int line)
+   {
+      long      now   = System.nanoTime();
+      CallStack stack = (CallStack)stacks.get();
+
+      if (stack.depth == 0)
+         return;
+
+      Frame frame   = stack.frames[--stack.depth];
+      long  elapsed = now - frame.start;
+      long  self    = elapsed - frame.children;
+
+      if (stack.depth > 0)
+         stack.frames[stack.depth - 1].children += elapsed;
+
+      Node node = frame.node;
+      node.calls.increment();
+      node.self.add(self);
+      node.inclusive.add(elapsed);
+
+      update(getFunction(functions, node.name), self);
+
+      ConcurrentHashMap lines = (ConcurrentHashMap)sites.get(source);
+      if (lines == null)
+      {
+         ConcurrentHashMap next = new ConcurrentHashMap();
+         lines = (ConcurrentHashMap)sites.putIfAbsent(source, next);
+         if (lines == null)
+            lines = next;
+      }
+
+      Integer key  = new Integer(line);
+      Statistic site = (Statistic)lines.get(key);
+      if (site == null)
+      {
+         Statistic next = new Statistic(source + ":" + line);
+         site = (Statistic)lines.putIfAbsent(key, next);
+         if (site == null)
+            site = next;
+      }
+      site.calls.increment();
+      site.nanos.add(elapsed);
+
+      total.add(self);
+   }
+
+   /** adds a call to the statistics of a function.  the ScriptInstance.ProfilerStatistic for the function is a plain object 
+       that scripts hold on to and read, it is updated while holding its lock so calls from forks sharing this profiler
+       aren't lost */
+   private static void update(Statistic stat, long nanos)
+   {
+      stat.calls.increment();
+      stat.nanos.add(nanos);
+
+      ScriptInstance.ProfilerStatistic view = stat.view;
+      synchronized (view)
+      {
+         view.calls++;
+         view.nanos += nanos;
+         view.ticks  = view.nanos / 1000000L;
+      }
+   }
+
+   /** records a call measured elsewhere (in nanoseconds).  this call does not appear in the call tree */
+   public void record(String function, long nanos)
+   {
+      update(getFunction(functions, function), nanos);
+      total.add(nanos);
+   }
+
+   /** returns the total self time of all recorded calls in nanoseconds */
+   public long getTotal()
+   {
+      return total.sum();
+   }
+
+   /** returns statistics for each function sorted by self time */
+   public List getFunctionStatistics()
+   {
+      List values = new ArrayList(functions.values());
+      Collections.sort(values);
+      return values;
+   }
+
+   /** returns the ScriptInstance.ProfilerStatistic for each function sorted by self time.  these objects are updated as more 
+       calls are profiled */
+   public List getProfilerStatistics()
+   {
+      List values = new LinkedList();
+
+      Iterator i = functions.values().iterator();
+      while (i.hasNext())
+      {
+         values.add(((Statistic)i.next()).view);
+      }
+
+      Collections.sort(values);
+      return values;
+   }
+
+   /** returns statistics for each call site (source:line) sorted by inclusive time */
+   public List getCallSiteStatistics()
+   {
+      List values = new ArrayList();
+
+      Iterator i = sites.values().iterator();
+      while (i.hasNext())
+      {
+         values.addAll(((Map)i.next()).values());
+      }
+
+      Collections.sort(values);
+      return values;
+   }
+
+   /** returns statistics for each caller to callee edge (caller -&gt; callee) sorted by inclusive time.  calls made from the top 
+       level of a script have &lt;toplevel&gt; as the caller */
+   public List getEdgeStatistics()
+   {
+      Map edges = new HashMap();
+      collectEdges(root, edges);
+
+      List values = new ArrayList(edges.values());
+      Collections.sort(values);
+      return values;
+   }
+
+   private void collectEdges(Node node, Map edges)
+   {
+      Iterator i = node.children.values().iterator();
+      while (i.hasNext())
+      {
+         Node child = (Node)i.next();
+         String key = (node == root ? "<toplevel>" : node.name) + " -> " + child.name;
+
+         Statistic edge = (Statistic)edges.get(key);
+         if (edge == null)
+         {
+            edge = new Statistic(key);
+            edges.put(key, edge);
+         }
+
+         edge.calls.add(child.calls.sum());
+         edge.nanos.add(child.inclusive.sum());
+
+         collectEdges(child, edges);
+      }
+   }
+
+   /** writes the call tree as collapsed stacks: each line is the function names of a stack separated by semicolons followed by 
+       the self time of that stack in nanoseconds.  this is the input format of flamegraph.pl and similar tools. */
+   public void printCollapsedStacks(OutputStream out)
+   {
+      PrintWriter pout = new PrintWriter(out, true);
+      printCollapsedStacks(root, "", pout);
+      pout.flush();
+   }
+
+   private void printCollapsedStacks(Node node, String path, PrintWriter out)
+   {
+      Iterator i = node.children.values().iterator();
+      while (i.hasNext())
+      {
+         Node   child = (Node)i.next();
+         String name  = child.name.replace(';', ',');
+         String stack = path.length() == 0 ? name : path + ";" + name;
+         long   self  = child.self.sum();
+
+         if (self > 0)
+         {
+            out.println(stack + " " + self);
+         }
+
+         printCollapsedStacks(child, stack, out);
+      }
+   }
+
+   /** discards all of the statistics collected so far */
+   public void reset()
+   {
+      root = new Node("<root>", null);
+      functions.clear();
+      sites.clear();
+      total.reset();
+   }
+}
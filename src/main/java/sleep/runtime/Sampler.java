@@ -0,0 +1,336 @@
+/*
+ * Copyright (C) 2002-2012 Raphael Mudge (rsmudge@gmail.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package sleep.runtime;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.io.*;
+
+import sleep.engine.CallRequest;
+import sleep.bridges.SleepClosure;
+
+/** A sampling profiler.  Once started, a background thread wakes up at a fixed interval and looks at the calls in progress
+ *  in each running script (see ScriptEnvironment.pushCall).  The samples are added up into a report of hot functions and hot lines kept by each script instance (and shared with its forks).
+ *
+ *  <p>Unlike the tracing profiler (DEBUG_TRACE_CALLS) the scripts do no timing of their own, so the sampler is cheap enough to
+ *  leave on.  Start it with -Dsleep.sampler=true (set the interval in milliseconds with -Dsleep.sampler.interval=N, the default
+ *  is 10) or by calling Sampler.start(interval).</p>
+ *
+ *  <p>While the sampler is enabled each block records the line of the statement it is about to run (ScriptEnvironment.markLine)
+ *  and the line of a sample is the innermost one of these.  After a nested block (a loop body, an if) finishes, the line stays
+ *  on its last statement until the next statement of the outer block starts.  Scripts are registered with the sampler the
+ *  first time they run a statement while it is enabled.</p>
+ *
+ *  @see sleep.runtime.ScriptInstance#getSampleReport()
+ */
+public class Sampler implements Runnable
+{
+   /** the number of samples a function or line was seen in */
+   public static class Count implements Comparable
+   {
+      protected String    name;
+      protected LongAdder self  = new LongAdder();
+      protected LongAdder total = new LongAdder();
+
+      public Count(String _name)
+      {
+         name = _name;
+      }
+
+      /** the function or line (source:line) this count is for */
+      public String getName()
+      {
+         return name;
+      }
+
+      /** the number of samples where this function was the innermost call (or this was the line being executed) */
+      public long getSelf()
+      {
+         return self.sum();
+      }
+
+      /** the number of samples where this function was anywhere on the call stack */
+      public long getTotal()
+      {
+         return total.sum();
+      }
+
+      /** sorts by self samples, most first */
+      public int compareTo(Object o)
+      {
+         long a = getSelf();
+         long b = ((Count)o).getSelf();
+         return a > b ? -1 : (a < b ? 1 : (getTotal() > ((Count)o).getTotal() ? -1 : 0));
+      }
+
+      public String toString()
+      {
+         return getSelf() + " " + getTotal() + " " + name;
+      }
+   }
+
+   /** the hot functions and hot lines of a script, filled in by the sampler thread */
+   public static class Report
+   {
+      protected ConcurrentHashMap functions = new ConcurrentHashMap();
+      protected ConcurrentHashMap lines     = new ConcurrentHashMap();
+      protected LongAdder         samples   = new LongAdder();
+
+      private static Count get(ConcurrentHashMap map, String key)
+      {
+         Count temp = (Count)map.get(key);
+         if (temp == null)
+         {
+            Count next = new Count(key);
+            temp = (Count)map.putIfAbsent(key, next);
+            if (temp == null)
+               temp = next;
+         }
+         return temp;
+      }
+
+      /** the number of samples taken while the script was running */
+      public long getSamples()
+      {
+         return samples.sum();
+      }
+
+      /** returns a sorted list of Sampler.Count objects, one for each function seen in a sample */
+      public List getHotFunctions()
+      {
+         List temp = new LinkedList(functions.values());
+         Collections.sort(temp);
+         return temp;
+      }
+
+      /** returns a sorted list of Sampler.Count objects, one for each source:line seen in a sample */
+      public List getHotLines()
+      {
+         List temp = new LinkedList(lines.values());
+         Collections.sort(temp);
+         return temp;
+      }
+
+      /** forgets all of the samples */
+      public void reset()
+      {
+         functions.clear();
+         lines.clear();
+         samples.reset();
+      }
+
+      /** prints the report: each line has the self samples, the total samples, and the function or line */
+      public void print(OutputStream out)
+      {
+         PrintWriter pout = new PrintWriter(out, true);
+         pout.println(getSamples() + " samples");
+
+         pout.println("functions:");
+         Iterator i = getHotFunctions().iterator();
+         while (i.hasNext())
+         {
+            pout.println("   " + i.next());
+         }
+
+         pout.println("lines:");
+         i = getHotLines().iterator();
+         while (i.hasNext())
+         {
+            pout.println("   " + i.next());
+         }
+      }
+   }
+
+   /** is the sampler on? */
+   protected static boolean enabled  = System.getProperty("sleep.sampler", "false").equals("true");
+
+   /** the time between samples in milliseconds */
+   protected static int     interval = Integer.getInteger("sleep.sampler.interval", 10).intValue();
+
+   /** the script instances to sample, held weakly so unloaded scripts go away */
+   private static final Map scripts  = new WeakHashMap();
+
+   /** the sampler thread (null if it isn't running) */
+   private static Thread    thread   = null;
+
+   static
+   {
+      if (enabled)
+         start(interval);
+   }
+
+   /** adds a script instance to the set of scripts the sampler looks at.  ScriptEnvironment.markLine does this for you */
+   public static void register(ScriptInstance script)
+   {
+      synchronized (scripts)
+      {
+         scripts.put(script, null);
+      }
+   }
+
+   /** returns true if the sampler is on, scripts record the line of each statement while it is */
+   public static boolean isEnabled()
+   {
+      return enabled;
+   }
+
+   /** returns true if the sampler thread is running */
+   public static synchronized boolean isRunning()
+   {
+      return thread != null;
+   }
+
+   /** returns the time between samples in milliseconds */
+   public static int getInterval()
+   {
+      return interval;
+   }
+
+   /** starts the sampler thread (or changes its interval if it is running already) */
+   public static synchronized void start(int millis)
+   {
+      interval = millis < 1 ? 1 : millis;
+      enabled  = true;
+
+      if (thread == null)
+      {
+         thread = new Thread(new Sampler(), "Sleep Sampler");
+         thread.setDaemon(true);
+         thread.start();
+      }
+   }
+
+   /** stops the sampler thread.  the reports collected so far are kept */
+   public static synchronized void stop()
+   {
+      enabled = false;
+
+      if (thread != null)
+      {
+         thread.interrupt();
+         thread = null;
+      }
+   }
+
+   public void run()
+   {
+      Thread self = Thread.currentThread();
+
+      while (true)
+      {
+         synchronized (Sampler.class)
+         {
+            if (thread != self)
+               return;
+         }
+
+         try
+         {
+            Thread.sleep(interval);
+         }
+         catch (InterruptedException iex)
+         {
+            return;
+         }
+
+         Object[] temp;
+         synchronized (scripts)
+         {
+            temp = scripts.keySet().toArray();
+         }
+
+         for (int x = 0; x < temp.length; x++)
+         {
+            ScriptInstance script = (ScriptInstance)temp[x];
+            if (script != null && script.isLoaded())
+            {
+               Iterator i = script.getScriptEnvironments().iterator();
+               while (i.hasNext())
+               {
+                  sample(script, (ScriptEnvironment)i.next());
+               }
+            }
+         }
+      }
+   }
+
+   /** returns the name of a function recorded by ScriptEnvironment.pushCall */
+   private static String describe(Object function)
+   {
+      if (function instanceof CallRequest)
+         return ((CallRequest)function).getFunctionName();
+
+      if (function instanceof Scalar && ((Scalar)function).objectValue() instanceof SleepClosure)
+         return ((SleepClosure)((Scalar)function).objectValue()).toStringGeneric();
+
+      return function + "";
+   }
+
+   /** takes one sample of the specified script environment (one per thread for a script in concurrent mode).  the script
+       thread doesn't stop for this so the state read here may be stale or in the middle of changing, anything that doesn't
+       add up is skipped */
+   private static void sample(ScriptInstance script, ScriptEnvironment env)
+   {
+      Object[] calls   = env.calls;
+      int[]    lines   = env.callLines;
+      Object[] sources = env.callSources;
+      int      depth   = env.callDepth;
+
+      if (env.sources.isEmpty())
+         return;    /* the script isn't running */
+
+      if (depth < 0 || depth >= calls.length || depth >= lines.length || depth >= sources.length)
+         return;
+
+      Report report = script.getSampleReport();
+      report.samples.increment();
+
+      /* the innermost function gets the self sample, every distinct function on the stack gets a total sample */
+      Set seen = new HashSet();
+      for (int x = depth; x >= 0; x--)
+      {
+         String name = x == 0 ? "<toplevel>" : (calls[x] == null ? null : describe(calls[x]));
+
+         if (name == null)
+            continue;
+
+         Count count = Report.get(report.functions, name);
+
+         if (x == depth)
+            count.self.increment();
+
+         if (seen.add(name))
+            count.total.increment();
+      }
+
+      /* the line is from the innermost level that has made a call, the source file is the one that call was made from */
+      for (int x = depth; x >= 0; x--)
+      {
+         Object source = sources[x];
+
+         if (lines[x] >= 0 && source != null)
+         {
+            Count count = Report.get(report.lines, source + ":" + lines[x]);
+            count.self.increment();
+            count.total.increment();
+            return;
+         }
+      }
+   }
+}
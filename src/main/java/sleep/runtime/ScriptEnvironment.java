@@ -253,10 +253,14 @@ public class ScriptEnvironment implements Serializable
     {
        if (value == null) 
        {
-          metadata.remove(key);
+          if (metadata != null)
+             metadata.remove(key);
        }
        else
        {
+          if (metadata == null)
+             metadata = new HashMap();   /* a closure call starts without one, most never store anything */
+
           metadata.put(key, value);
        }
     }
@@ -264,20 +268,26 @@ public class ScriptEnvironment implements Serializable
     /** Returns the data associated with the particular key for this context. */
     public Object getContextMetadata(Object key)
     {
-       return metadata.get(key);
+       return metadata == null ? null : metadata.get(key);
     }
 
     /** Returns the data associated with the particular key for this context. If the key value is null then the specified default_value is returned */
     public Object getContextMetadata(Object key, Object default_value)
     {
-       Object value = metadata.get(key);
+       Object value = getContextMetadata(key);
 
        if (value == null)
        {
           return default_value;
        }
  
-       return metadata.get(key);
+       return value;
+    }
+
+    /** Returns the meta data of this context, null if nothing was stored in it */
+    public HashMap getContextMetadata()
+    {
+       return metadata;
     }
 
     public void addToContext(Block b, Step s)
@@ -367,6 +377,14 @@ public class ScriptEnvironment implements Serializable
        return currentHandler != null || moreHandlers;
     }
 
+    /** Tells this environment whether code outside of it (i.e. the script that started a &amp;pmap worker) has an exception
+        handler installed.  If so an exception that isn't caught here stays flagged for that code to pick up rather than
+        being reported as uncaught. */
+    public void setOuterExceptionHandler(boolean installed)
+    {
+       moreHandlers = installed;
+    }
+
     public boolean isResponsible(Block block)
     {
        return currentHandler != null && currentHandler.owner == block;
@@ -572,6 +590,69 @@ public class ScriptEnvironment implements Serializable
        sources.pop();
     }
 
+    //
+    // the calls in progress, read by the sampling profiler (sleep.runtime.Sampler) from another thread.  these are plain
+    // arrays and fields on purpose: a sample that is a little stale or torn is fine, a lock on every call is not.
+    //
+
+    /** the function (a String, Scalar, or CallRequest) of each call in progress.  index 0 is the top level */
+    protected Object[] calls     = new Object[32];
+
+    /** the line each level is running (the line it last made a call from when the sampler wasn't enabled, -1 if none) */
+    protected int[]    callLines = new int[32];
+
+    /** the source file of each level's line, paired with callLines */
+    protected Object[] callSources = new Object[32];
+
+    /** the index of the innermost call in progress */
+    protected int      callDepth = 0;
+
+    /** record the start of a call to the specified function (any object whose toString() names it) from the specified line */
+    public void pushCall(Object function, int lineNumber)
+    {
+       int depth = callDepth + 1;
+
+       if (depth >= calls.length)
+       {
+          Object[] tempc = new Object[calls.length * 2];
+          int[]    templ = new int[calls.length * 2];
+          Object[] temps = new Object[calls.length * 2];
+          System.arraycopy(calls, 0, tempc, 0, calls.length);
+          System.arraycopy(callLines, 0, templ, 0, calls.length);
+          System.arraycopy(callSources, 0, temps, 0, calls.length);
+          callSources = temps;
+          callLines   = templ;
+          calls       = tempc;
+       }
+
+       callSources[callDepth] = sources.isEmpty() ? null : sources.peek();
+       callLines[callDepth]   = lineNumber;
+       calls[depth]           = function;
+       callLines[depth]       = -1;
+       callDepth              = depth;
+    }
+
+    /** record the source file and line of the statement the innermost call is running.  Block calls this for each step
+        while the sampler is enabled, the first call also adds this script to the scripts the sampler looks at */
+    public void markLine(Object source, int lineNumber)
+    {
+       if (!self.sampled)
+       {
+          self.sampled = true;
+          Sampler.register(self);
+       }
+
+       callSources[callDepth] = source;
+       callLines[callDepth]   = lineNumber;
+    }
+
+    /** record the end of the innermost call */
+    public void popCall()
+    {
+       calls[callDepth] = null;
+       callDepth--;
+    }
+
     //
     // stuff related to frame management
     //
@@ -620,7 +701,7 @@ public class ScriptEnvironment implements Serializable
     {
        if (frame == null) 
        { 
-          frame = new Stack(); 
+          frame = new Frame(); 
        }
 
        if ((findex + 1) >= frames.size())
@@ -639,8 +720,13 @@ public class ScriptEnvironment implements Serializable
     {
        if ((findex + 1) >= frames.size())
        {
-          frames.add(new Stack());
-       } 
+          frames.add(new Frame());
+       }
+       else if (!(frames.get(findex + 1) instanceof Frame))
+       {
+          /* this slot was last used by a Stack passed to CreateFrame(Stack), don't reuse someone else's Stack */
+          frames.set(findex + 1, new Frame());
+       }
 
        findex++;
     }
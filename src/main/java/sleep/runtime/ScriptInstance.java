@@ -38,6 +38,7 @@ import sleep.parser.ParserUtilities;
 
 import java.util.*;
 import java.io.*;
+import java.lang.ref.WeakReference;
 
 /** Every piece of information related to a loaded script.  This includes the scripts runtime environment, code in compiled 
   * form, variable information, and listeners for runtime issues.
@@ -129,10 +130,20 @@ public class ScriptInstance implements Serializable, Runnable
        return false;
     }
 
+    /** true if calls made by this script are traced or profiled, decided when the debug flags are set */
+    protected boolean traceCalls = false;
+
     /** set the debug flags for this script */
     public void setDebugFlags(int options)
     {
-        debug = options;
+        debug      = options;
+        traceCalls = (options & DEBUG_TRACE_CALLS) == DEBUG_TRACE_CALLS;
+    }
+
+    /** returns true if function calls are traced or profiled for this script (DEBUG_TRACE_CALLS is set) */
+    public boolean isTraceCalls()
+    {
+        return traceCalls;
     }
 
     /** retrieve the debug flags for this script */
@@ -156,7 +167,7 @@ public class ScriptInstance implements Serializable, Runnable
     {
         if (environmentToShare == null)
         {
-           environmentToShare = new Hashtable();
+           environmentToShare = new EnvironmentTable();
         }
 
         if (varContainerToUse == null)
@@ -171,6 +182,116 @@ public class ScriptInstance implements Serializable, Runnable
         environment = new ScriptEnvironment(environmentToShare, this);
 
         loaded = true;
+
+        if (concurrentDefault)
+           setConcurrent(true);
+    }
+
+    /** if true, new script instances start out in concurrent mode.  set with -Dsleep.concurrent=true */
+    protected static boolean concurrentDefault = System.getProperty("sleep.concurrent", "false").equals("true");
+
+    /** the environment and variable scopes of one thread running this script in concurrent mode */
+    protected static class ThreadState
+    {
+       public ScriptEnvironment environment;
+       public ScriptVariables   variables;
+       public List              strace = null;
+    }
+
+    /** a WeakReference to the ThreadState of each thread running this script, null unless this script is in concurrent mode.
+        the thread's own map holds only the weak reference, a strong one would keep this script alive as long as the thread
+        (a pooled thread, say) lives */
+    protected transient volatile ThreadLocal threads = null;
+
+    /** the ThreadState of each thread that has run this script in concurrent mode (held weakly by thread) */
+    protected transient Map environments = null;
+
+    /** Puts this script into (or takes it out of) concurrent mode.  Normally a call into a script (a closure call from Java, a
+        proxy interface, etc.) locks the script's variables so one thread at a time runs the script.  In concurrent mode each
+        thread gets its own ScriptEnvironment (frames, context, return values, and stack trace) and its own stack of local
+        scopes.  Calls from different threads then run in parallel.  The global variables and the closure (this) scopes
+        are shared.  Keep in mind the default containers for these are Hashtables: each access is safe but a sequence of
+        accesses isn't atomic.  The same goes for shared arrays and hashes.
+
+        <p>The thread that turns concurrent mode on keeps the environment and variables it has now.  Other threads get
+        fresh ones the first time they run the script.  Turn this on once the script is loaded and set up (after makeSafe,
+        setScriptVariables, etc.).  A coroutine or continuation shouldn't be resumed by two threads at once.</p> */
+    public synchronized void setConcurrent(boolean value)
+    {
+        if (value && threads == null)
+        {
+           final Map envs = Collections.synchronizedMap(new WeakHashMap());
+
+           ThreadLocal temp = new ThreadLocal()
+           {
+              protected Object initialValue()
+              {
+                 ThreadState state = new ThreadState();
+                 state.environment = new ScriptEnvironment(environment.getEnvironment(), ScriptInstance.this);
+                 state.variables   = new ScriptVariables(variables.getGlobalVariables());
+                 envs.put(Thread.currentThread(), state);
+                 return new WeakReference(state);
+              }
+           };
+
+           ThreadState mine = new ThreadState();
+           mine.environment = environment;
+           mine.variables   = variables;
+           temp.set(new WeakReference(mine));
+           envs.put(Thread.currentThread(), mine);
+
+           environments = envs;
+           threads      = temp;
+        }
+        else if (!value)
+        {
+           threads      = null;
+           environments = null;
+        }
+    }
+
+    /** returns the ThreadState of the calling thread.  environments holds it for as long as the thread is alive.  if it is
+        gone anyway (concurrent mode was turned off while this thread was using it) the thread gets a fresh one */
+    private ThreadState getThreadState(ThreadLocal temp)
+    {
+        ThreadState state = (ThreadState)((WeakReference)temp.get()).get();
+        if (state == null)
+        {
+           temp.remove();
+           state = (ThreadState)((WeakReference)temp.get()).get();
+        }
+        return state;
+    }
+
+    /** returns true if this script is in concurrent mode */
+    public boolean isConcurrent()
+    {
+        return threads != null;
+    }
+
+    /** returns the environment of each thread running this script (just the script environment unless this script is in
+        concurrent mode) */
+    public List getScriptEnvironments()
+    {
+        List temp = new LinkedList();
+        temp.add(environment);
+
+        Map envs = environments;
+        if (envs != null)
+        {
+           synchronized (envs)
+           {
+              Iterator i = envs.values().iterator();
+              while (i.hasNext())
+              {
+                 Object next = ((ThreadState)i.next()).environment;
+                 if (next != environment)
+                    temp.add(next);
+              }
+           }
+        }
+
+        return temp;
     }
 
     /** Install a block as the compiled script code */ 
@@ -188,18 +309,31 @@ public class ScriptInstance implements Serializable, Runnable
     /** Returns this scripts runtime environment */
     public ScriptEnvironment getScriptEnvironment()
     {
+        ThreadLocal temp = threads;
+        if (temp != null)
+           return getThreadState(temp).environment;
+
         return environment;
     }
 
-    /** Sets the variable container to be used by this script */
+    /** Sets the variable container to be used by this script.  In concurrent mode this is also the variable container of
+        the calling thread (other threads that haven't run the script yet share its globals) */
     public void setScriptVariables(ScriptVariables v)
     {
         variables = v;
+
+        ThreadLocal temp = threads;
+        if (temp != null)
+           getThreadState(temp).variables = v;
     }
 
     /** Returns the variable container used by this script */
     public ScriptVariables getScriptVariables()
     {
+        ThreadLocal temp = threads;
+        if (temp != null)
+           return getThreadState(temp).variables;
+
         return variables;
     }
     
@@ -234,15 +368,34 @@ public class ScriptInstance implements Serializable, Runnable
         }
     }
  
+    /** returns the current stack trace (null if there isn't one).  in concurrent mode each thread has its own */
+    private List getTrace()
+    {
+       ThreadLocal temp = threads;
+       if (temp != null)
+          return getThreadState(temp).strace;
+
+       return (List)getScriptEnvironment().getEnvironment().get("%strace%");
+    }
+
+    private void setTrace(List strace)
+    {
+       ThreadLocal temp = threads;
+       if (temp != null)
+          getThreadState(temp).strace = strace;
+       else
+          getScriptEnvironment().getEnvironment().put("%strace%", strace);
+    }
+
     /** Records a stack frame into this environments stack trace tracker thingie. */
     public void recordStackFrame(String description, String source, int lineNumber)
     {
-       List strace = (List)getScriptEnvironment().getEnvironment().get("%strace%");
+       List strace = getTrace();
 
        if (strace == null) 
        {
           strace = new LinkedList();
-          getScriptEnvironment().getEnvironment().put("%strace%", strace);
+          setTrace(strace);
        }
 
        SleepStackElement stat = new SleepStackElement();
@@ -284,8 +437,7 @@ public class ScriptInstance implements Serializable, Runnable
     /** Removes the top element of the stack trace */
     public void clearStackTrace()
     {
-       List strace = new LinkedList();
-       getScriptEnvironment().getEnvironment().put("%strace%", strace);
+       setTrace(new LinkedList());
     }
 
     /** Returns the last stack trace.  Each element of the list is a ScriptInstance.SleepStackElement object.  
@@ -293,7 +445,7 @@ public class ScriptInstance implements Serializable, Runnable
         clears the stack trace. */
     public List getStackTrace()
     {
-       List strace = (List)getScriptEnvironment().getEnvironment().get("%strace%");
+       List strace = getTrace();
        clearStackTrace(); /* clear the old stack trace */
        if (strace == null)
        {
@@ -308,64 +460,87 @@ public class ScriptInstance implements Serializable, Runnable
         /** the name of the function call */
         public String functionName;
 
-        /** the total number of ticks consumed by this function call */
+        /** the total number of ticks (milliseconds) consumed by this function call */
         public long ticks = 0;
 
+        /** the total number of nanoseconds consumed by this function call */
+        public long nanos = 0;
+
         /** the total number of times this function has been called */
         public long calls = 0;
 
         /** used to compare this statistic to other statistics for the sake of sorting */
         public int compareTo(Object o)
         {
-           return (int)(((ProfilerStatistic)o).ticks - ticks);
+           long other = ((ProfilerStatistic)o).nanos;
+           return other > nanos ? 1 : (other < nanos ? -1 : 0);
         }
 
         /** returns a string in the form of (total time used in seconds)s (total calls made) @(line number) (function description) */ 
         public String toString()
         {
-           return (ticks / 1000.0) + "s " + calls + " " + functionName;
+           return (nanos / 1000000000.0) + "s " + calls + " " + functionName;
         }
     }
 
-    /** return the total number of ticks this script has spent processing */
-    public long total()
-    {
-        Long total = (Long)getMetadata().get("%total%");
-        return total == null ? 0L : total.longValue();
-    }
+    /** true once this script has been registered with the sampling profiler */
+    protected transient boolean sampled = false;
 
-    /** this function is used internally by the sleep interpreter to collect profiler statistics
-        when DEBUG_TRACE_CALLS or DEBUG_TRACE_PROFILE_ONLY is enabled */
-    public void collect(String function, int lineNo, long ticks)
-    {
-       Map    statistics = (Map)getMetadata().get("%statistics%");
-       Long   total      = (Long)getMetadata().get("%total%");
+    /** the samples taken of this script (and its forks) by the sampling profiler */
+    protected transient volatile Sampler.Report samples = new Sampler.Report();
 
-       if (statistics == null) 
-       {
-          statistics = new HashMap();
-          total      = new Long(0L);
+    /** returns the hot functions and hot lines of this script, as sampled by the sampling profiler.  the report stays empty
+        unless the sampler is running (see sleep.runtime.Sampler) */
+    public Sampler.Report getSampleReport()
+    {
+        if (samples == null)
+        {
+           synchronized (this)
+           {
+              if (samples == null)
+                 samples = new Sampler.Report(); /* a deserialized script starts a new report */
+           }
+        }
 
-          getMetadata().put("%statistics%", statistics);
-          getMetadata().put("%total%", total);
-       }
+        return samples;
+    }
 
-       ProfilerStatistic stats = (ProfilerStatistic)statistics.get(function);
+    /** the profiler for this script, found in (or put into) the script metadata the first time it is needed */
+    protected transient Profiler profiler = null;
 
-       if (stats == null)
-       {
-          stats = new ProfilerStatistic();
-          stats.functionName = function;
+    /** returns the profiler for this script.  the profiler lives in the script metadata so forks of this script share it.
+        Note!!! The profiler only collects statistics when DEBUG_TRACE_CALLS or DEBUG_TRACE_PROFILE_ONLY is enabled! */
+    public Profiler getProfiler()
+    {
+        if (profiler == null)
+        {
+           Map meta = getMetadata();
+           synchronized (meta)
+           {
+              profiler = (Profiler)meta.get("%profiler%");
+
+              if (profiler == null)
+              {
+                 profiler = new Profiler();
+                 meta.put("%profiler%", profiler);
+              }
+           }
+        }
 
-          statistics.put(function, stats);
-       }
+        return profiler;
+    }
 
-       /** updated individual statistics */
-       stats.ticks += ticks;
-       stats.calls ++;
+    /** return the total number of ticks (milliseconds) this script has spent processing */
+    public long total()
+    {
+        return getProfiler().getTotal() / 1000000L;
+    }
 
-       /** update global statistic */
-       getMetadata().put("%total%", new Long(total.longValue() + ticks));
+    /** records a profiler statistic measured in ticks (milliseconds).  the sleep interpreter uses the Profiler (see getProfiler())
+        directly, this is here for code that measures calls itself */
+    public void collect(String function, int lineNo, long ticks)
+    {
+       getProfiler().record(function, ticks * 1000000L);
     }
 
     /** a quick way to check if we are profiling and not tracing the script steps */
@@ -374,24 +549,13 @@ public class ScriptInstance implements Serializable, Runnable
        return (getDebugFlags() & DEBUG_TRACE_PROFILE_ONLY) == DEBUG_TRACE_PROFILE_ONLY;
     }
 
-    /** Returns a sorted (in order of total ticks used) list of function call statistics for this
-        script environment.  The list contains ScriptInstance.ProfileStatistic objects. 
+    /** Returns a sorted (in order of total time used) list of function call statistics for this
+        script environment.  The list contains ScriptInstance.ProfileStatistic objects. See getProfiler() for 
+        call site, caller/callee, and call stack statistics.
         Note!!! For Sleep to provide profiler statistics, DEBUG_TRACE_CALLS or DEBUG_TRACE_PROFILE_ONLY must be enabled! */
     public List getProfilerStatistics()
     {
-        Map statistics = (Map)getMetadata().get("%statistics%");
-
-        if (statistics != null)
-        {
-           List values = new LinkedList(statistics.values());
-           Collections.sort(values);
-
-           return values;
-        }
-        else
-        {
-           return new LinkedList();
-        }
+        return getProfiler().getProfilerStatistics();
     }
 
     /** retrieves script meta data for you to update */
@@ -432,7 +596,7 @@ public class ScriptInstance implements Serializable, Runnable
     public void makeSafe()
     {
         Hashtable oldEnv = environment.getEnvironment();
-        Hashtable newEnv = new Hashtable(  (oldEnv.size() * 2) - 1  );
+        Hashtable newEnv = new EnvironmentTable(  (oldEnv.size() * 2) - 1  );
 
         /* reset the environment please */
         Iterator i = oldEnv.entrySet().iterator();
@@ -459,12 +623,15 @@ public class ScriptInstance implements Serializable, Runnable
     public ScriptInstance fork()
     {
         ScriptInstance si = new ScriptInstance(variables.getGlobalVariables().createInternalVariableContainer(), environment.getEnvironment());
-        si.makeSafe();
+
+        /* the fork gets a copy-on-write view of this environment rather than a copy (see makeSafe) */
+        si.environment.setEnvironment(new ForkedEnvironment(environment.getEnvironment(), si));
 
         /* set the other cool stuff pls */
         si.setName(getName());
         si.setDebugFlags(getDebugFlags());
         si.watchers = watchers;
+        si.samples  = getSampleReport();
 
         /* make sure things like profiler statistics and metadata are shared between threads. */
         si.getScriptVariables().getGlobalVariables().putScalar("__meta__", SleepUtils.getScalar((Object)getMetadata()));
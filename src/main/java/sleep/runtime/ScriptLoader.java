@@ -19,16 +19,19 @@ package sleep.runtime;
 
 import sleep.bridges.*;
 import sleep.engine.Block;
+import sleep.engine.BlockFormat;
 import sleep.error.YourCodeSucksException;
 import sleep.interfaces.Loadable;
 import sleep.parser.Parser;
 
 import java.io.*;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.CharBuffer;
 import java.nio.charset.CharsetDecoder;
 import java.nio.charset.CoderResult;
 import java.util.*;
+import java.util.concurrent.Callable;
 
 import sleep.taint.*;
 
@@ -87,9 +90,9 @@ import sleep.taint.*;
  *
  * <h3>Script Cache</h3>
  *
- * <p>The ScriptLoader mantains a cache of Blocks.  These are indexed by name and a timestamp of when they were created.  You may call the
- * touch method with the name and a timestamp to allow the ScriptLoader to invalidate the cache entry.  If you just load scripts from files
- * then the script cache will just work.  To disable the cache use <code>loader.setGlobalCache(false)</code>.</p>
+ * <p>The ScriptLoader can keep a cache of Blocks (see BlockCache).  These are indexed by a hash of the script name and text, so a script that
+ * changes is compiled again and an unchanged script isn't.  To enable the cache use <code>loader.setGlobalCache(true)</code> (or
+ * -Dsleep.cache.size=N), to disable it use <code>loader.setGlobalCache(false)</code>.</p>
  *
  * <p>Hopefully this helped to clarify things. :)</p>
  */
@@ -98,38 +101,20 @@ public class ScriptLoader
     /**
      * cache for parsed scripts mantained (optionally) by the script loader.
      */
-    protected static Map BLOCK_CACHE = null;
+    protected static BlockCache BLOCK_CACHE = createCache(Integer.getInteger("sleep.cache.size", 0).intValue(), Long.getLong("sleep.cache.weight", 0).longValue());
 
-    private Block retrieveCacheEntry(String name)
-    {
-       if (BLOCK_CACHE != null && BLOCK_CACHE.containsKey(name))
-       {
-          Object[] temp = (Object[])BLOCK_CACHE.get(name);
-
-          return (Block)temp[0];
-       }
-
-       return null;
-    }
+    /** the number of entries in the cache setGlobalCache(true) creates */
+    private static final int DEFAULT_CACHE_SIZE = 1024;
 
-    private static boolean isCacheHit(String name)
+    private static BlockCache createCache(int size, long weight)
     {
-       return BLOCK_CACHE != null && BLOCK_CACHE.containsKey(name);
+       return (size > 0 || weight > 0) ? new BlockCache(size, weight) : null;
     }
 
-    /** nudge the cache with the last modified time of the specified script.  this call will delete the script from the cache if the lastModifiedTime > lastLoadTime */
+    /** nudge the cache with the last modified time of the specified script.  the cache is keyed on the text of a script now, a
+        script that changed won't match its old entry, so this does nothing.  it's here for compatibility */
     public void touch(String name, long lastModifiedTime)
     {
-       if (BLOCK_CACHE != null && BLOCK_CACHE.containsKey(name))
-       {
-          Object[] temp   = (Object[])BLOCK_CACHE.get(name);
-          long     loaded = ((Long)temp[1]).longValue();
-
-          if (lastModifiedTime > loaded)
-          {
-             BLOCK_CACHE.remove(name);
-          }
-       }
     }
 
     /**
@@ -172,16 +157,30 @@ public class ScriptLoader
 
     /**
      * The Sleep script loader can optionally cache parsed script files once they are loaded.  This is useful if you will have
-     * several script loader instances loading the same script files in isolated objects.
+     * several script loader instances loading the same script files in isolated objects.  Returns a copy of the cache
+     * entries (key to Block, see BlockCache.getEntries) or null if the cache is off.  The copy isn't kept up to date.
      */
     public Map setGlobalCache(boolean setting)
     {
         if (setting && BLOCK_CACHE == null)
-            BLOCK_CACHE = Collections.synchronizedMap(new HashMap());
+            BLOCK_CACHE = new BlockCache(DEFAULT_CACHE_SIZE, 0);
 
         if (!setting)
             BLOCK_CACHE = null;
 
+        return BLOCK_CACHE == null ? null : BLOCK_CACHE.getEntries();
+    }
+
+    /** sets the cache of compiled scripts shared by all script loaders, null turns the cache off */
+    public static void setGlobalCache(BlockCache cache)
+    {
+        BLOCK_CACHE = cache;
+    }
+
+    /** returns the cache of compiled scripts shared by all script loaders (use it to look at the statistics), null if the
+        cache is off */
+    public static BlockCache getGlobalCache()
+    {
         return BLOCK_CACHE;
     }
 
@@ -289,8 +288,10 @@ public class ScriptLoader
     /**
      * Load a serialized version of the script iff a serialized version exists, and its modification time is greater than the
      * modification time of the script.  Also handles the muss and fuss of reserializing the script if it has to reload the
-     * script.  Personally I didn't find much of a startup time decrease when loading the scripts serialized versus parsing them
-     * each time.  Theres a command 'bload' in the console to benchmark loading a script normally versus serialized.  Try it.
+     * script.  The serialized script is in the format of sleep.engine.BlockFormat and is mapped into memory to read it.  If
+     * it can't be read (it was written by another version of Sleep, or the classes it uses have changed) the script is
+     * compiled and serialized again.  Theres a command 'bload' in the console to benchmark loading a script normally versus
+     * serialized.  Try it.
      *
      * @param script a file object pointing to the script file...
      */
@@ -300,7 +301,33 @@ public class ScriptLoader
 
         if (bin.exists() && (!script.exists() || script.lastModified() < bin.lastModified())) 
         {
-            return loadSerialized(script.getName(), new FileInputStream(bin), env);
+            ByteBuffer buffer;
+
+            RandomAccessFile file = new RandomAccessFile(bin, "r");
+            try
+            {
+                buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+            }
+            finally
+            {
+                file.close();
+            }
+
+            if (!BlockFormat.isBlockFormat(buffer))
+            {
+                return loadSerialized(script.getName(), new FileInputStream(bin), env);
+            }
+
+            try
+            {
+                return loadScript(script.getName(), BlockFormat.read(buffer), env);
+            }
+            catch (IOException ex)
+            {
+                /* stale or damaged, compile it again (if we can) */
+                if (!script.exists())
+                    throw ex;
+            }
         }
 
         ScriptInstance si = loadScript(script, env);
@@ -309,11 +336,28 @@ public class ScriptLoader
     }
 
     /**
-     * Loads a serialized script from the specified input stream with the specified name
+     * Loads a serialized script from the specified input stream with the specified name.  The script may be in the format of
+     * sleep.engine.BlockFormat or (for scripts saved by older versions of Sleep) a serialized Block object.
      */
     public ScriptInstance loadSerialized(String name, InputStream stream, Hashtable env) throws IOException, ClassNotFoundException
     {
-        ObjectInputStream p = new ObjectInputStream(stream);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] temp = new byte[8192];
+        int    read;
+
+        while ((read = stream.read(temp)) > 0)
+        {
+            bytes.write(temp, 0, read);
+        }
+        stream.close();
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+        if (BlockFormat.isBlockFormat(buffer))
+        {
+            return loadScript(name, BlockFormat.read(buffer), env);
+        }
+
+        ObjectInputStream p = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
         Block block = (Block) p.readObject();
         return loadScript(name, block, env);
     }
@@ -323,16 +367,24 @@ public class ScriptLoader
      */
     public static void saveSerialized(ScriptInstance si) throws IOException
     {
-        saveSerialized(si, new FileOutputStream(si.getName() + ".bin"));
+        OutputStream stream = new FileOutputStream(si.getName() + ".bin");
+        try
+        {
+            saveSerialized(si, stream);
+        }
+        finally
+        {
+            stream.close();
+        }
     }
 
     /**
-     * Saves a serialized version of the ScriptInstance si to the specified output stream
+     * Saves a serialized version of the ScriptInstance si to the specified output stream (in the format of
+     * sleep.engine.BlockFormat)
      */
     public static void saveSerialized(ScriptInstance si, OutputStream stream) throws IOException
     {
-        ObjectOutputStream o = new ObjectOutputStream(stream);
-        o.writeObject(si.getRunnableBlock());
+        BlockFormat.write(si.getRunnableBlock(), stream);
     }
 
     /** creates a Sleep script instance using the precompiled code, name, and shared environment.  This function also
@@ -374,12 +426,6 @@ public class ScriptLoader
     /** compiles a script using the specified stream as a source */
     public Block compileScript(String name, InputStream stream) throws YourCodeSucksException, IOException
     {
-        if (isCacheHit(name)) 
-        {
-            stream.close();
-            return retrieveCacheEntry(name);
-        }
-
         StringBuffer code = new StringBuffer(8192);
 
         BufferedReader in = new BufferedReader(getInputStreamReader(stream));
@@ -415,30 +461,37 @@ public class ScriptLoader
     }
 
     /** compiles the specified script into a runnable block */
-    public Block compileScript(String name, String code) throws YourCodeSucksException
+    public Block compileScript(final String name, final String code) throws YourCodeSucksException
     {
-        if (isCacheHit(name)) 
-        {
-            return retrieveCacheEntry(name);
-        } 
-        else 
-        {
-            Parser temp = new Parser(name, code);
- 
-            if (TaintUtils.isTaintMode())
-            {
-               temp.setCodeFactory(new TaintModeGeneratedSteps());
-            }
+        BlockCache cache = BLOCK_CACHE;
+
+        if (cache == null)
+            return parseScript(name, code);
 
-            temp.parse();
+        /* taint mode generates different code for the same script */
+        String key = BlockCache.key(TaintUtils.isTaintMode() ? "(taint) " + name : name, code);
 
-            if (BLOCK_CACHE != null)
+        return cache.get(key, code.length(), new Callable()
+        {
+            public Object call()
             {
-                BLOCK_CACHE.put(name, new Object[] { temp.getRunnableBlock(), new Long(System.currentTimeMillis()) });
+                return parseScript(name, code);
             }
+        });
+    }
+
+    private Block parseScript(String name, String code) throws YourCodeSucksException
+    {
+        Parser temp = new Parser(name, code);
 
-            return temp.getRunnableBlock();
+        if (TaintUtils.isTaintMode())
+        {
+           temp.setCodeFactory(new TaintModeGeneratedSteps());
         }
+
+        temp.parse();
+
+        return temp.getRunnableBlock();
     }
 
     /** loads a script from the specified inputstream */
@@ -500,12 +553,6 @@ public class ScriptLoader
      */
     public void unloadScript(ScriptInstance script)
     {
-        // clear the block cache of this script...
-        if (BLOCK_CACHE != null) 
-        {
-            BLOCK_CACHE.remove(script.getName());
-        }
-
         //
         // remove script from our loaded scripts data structure
         //
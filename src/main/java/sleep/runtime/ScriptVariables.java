@@ -21,6 +21,7 @@ import java.io.Serializable;
 
 import sleep.runtime.Scalar; 
 import sleep.engine.Block;
+import sleep.engine.LocalSlots;
 
 import sleep.bridges.*;
 import sleep.interfaces.*;
@@ -67,6 +68,12 @@ public class ScriptVariables implements Serializable
 
     protected Stack       marks;    /* mark the beginning of a stack for fun and profit */
 
+    /* local scopes (and lists of local scopes) from closure calls that nothing held on to, ready for the next calls */
+    protected transient SlotVariable[] pool     = null;
+    protected transient int            pooled   = 0;
+    protected transient LinkedList[]   spares   = null;
+    protected transient int            spare    = 0;
+
     /** called when a closure is entered, allows an old stack of local scopes to be restored easily */
     public void beginToplevel(LinkedList l)
     {
@@ -74,6 +81,21 @@ public class ScriptVariables implements Serializable
        locals = l;
     }
     
+    /** called when a closure is entered, starts an empty stack of local scopes */
+    public void beginToplevel()
+    {
+       if (spare > 0)
+       {
+          spare--;
+          beginToplevel(spares[spare]);
+          spares[spare] = null;
+       }
+       else
+       {
+          beginToplevel(new LinkedList());
+       }
+    }
+
     /** called when a closure is exited, returns local var scope for later restoration if desired */
     public LinkedList leaveToplevel()
     {
@@ -82,6 +104,49 @@ public class ScriptVariables implements Serializable
        return scopes;
     }
 
+    /** hands the local scopes returned by leaveToplevel back for use by later calls.  only call this if nothing (a coroutine or
+        a continuation) kept the scopes.  the scalars in them aren't touched, the containers just forget them. */
+    public void recycle(LinkedList scopes)
+    {
+       if (pool == null)
+       {
+          pool   = new SlotVariable[32];
+          spares = new LinkedList[32];
+       }
+
+       while (!scopes.isEmpty())
+       {
+          Object temp = scopes.removeFirst();
+          if (temp instanceof SlotVariable && pooled < pool.length)
+          {
+             ((SlotVariable)temp).reset(null);
+             pool[pooled] = (SlotVariable)temp;
+             pooled++;
+          }
+       }
+
+       if (spare < spares.length)
+       {
+          spares[spare] = scopes;
+          spare++;
+       }
+    }
+
+    /** returns an empty local scope with the specified layout, a recycled one if there is one */
+    private Variable newLocalLevel(LocalSlots layout)
+    {
+       if (pooled > 0)
+       {
+          pooled--;
+          SlotVariable temp = pool[pooled];
+          pool[pooled] = null;
+          temp.reset(layout);
+          return temp;
+       }
+
+       return new SlotVariable(layout);
+    }
+
     /** used to check if other local scopes exist after the next pop */
     public boolean haveMoreLocals()
     {
@@ -230,7 +295,29 @@ public class ScriptVariables implements Serializable
     /** starts a new local variable scope.  once the code that is using this has finished, it should be popped */
     public void pushLocalLevel()
     {
-       locals.addFirst(global.createLocalVariableContainer());
+       if (global.getClass() == DefaultVariable.class)
+       {
+          locals.addFirst(newLocalLevel(null));
+       }
+       else
+       {
+          locals.addFirst(global.createLocalVariableContainer());
+       }
+    }
+
+    /** starts a new local variable scope for code with the specified local variable layout.  if the global variable container
+        is a plain DefaultVariable the local scope is a SlotVariable (the slotted variables are kept in an array), otherwise the
+        global container creates the local scope as usual. */
+    public void pushLocalLevel(LocalSlots layout)
+    {
+       if (global.getClass() == DefaultVariable.class)
+       {
+          locals.addFirst(newLocalLevel(layout));
+       }
+       else
+       {
+          locals.addFirst(global.createLocalVariableContainer());
+       }
     }
 
     /** discards the current local variable scope, making the previous local scope the current local scope again */
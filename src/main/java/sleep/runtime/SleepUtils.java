@@ -585,7 +585,7 @@ public class SleepUtils
    public static Scalar getHashScalar()
    {
       Scalar temp = new Scalar();
-      temp.setValue(new HashContainer());
+      temp.setValue(new OpenHashContainer());
 
       return temp;
    }
@@ -612,7 +612,7 @@ public class SleepUtils
    public static Scalar getScalar(int x)
    {
       Scalar temp = new Scalar();
-      temp.setValue(new IntValue(x));
+      temp.setValue(IntValue.valueOf(x));
 
       return temp;
    } 
@@ -621,7 +621,7 @@ public class SleepUtils
    public static Scalar getScalar(short x)
    {
       Scalar temp = new Scalar();
-      temp.setValue(new IntValue((int)x));
+      temp.setValue(IntValue.valueOf((int)x));
 
       return temp;
    } 
@@ -660,7 +660,7 @@ public class SleepUtils
    public static Scalar getScalar(long x)
    {
       Scalar temp = new Scalar();
-      temp.setValue(new LongValue(x));
+      temp.setValue(LongValue.valueOf(x));
 
       return temp;
    }
@@ -682,7 +682,7 @@ public class SleepUtils
          buff.append(append);
       }
 
-      temp.setValue(new StringValue(buff.toString()));
+      temp.setValue(StringValue.valueOf(buff.toString()));
  
       return temp;
    }
@@ -696,7 +696,7 @@ public class SleepUtils
       }
 
       Scalar temp = new Scalar();
-      temp.setValue(new StringValue(x));
+      temp.setValue(StringValue.valueOf(x));
 
       return temp;
    }
@@ -729,6 +729,13 @@ public class SleepUtils
    /** check if the scalar is true using Sleep's definition of truth.  A scalar is considered true if it is not $null and it is not equal to a representation of 0 */
    public static boolean isTrueScalar(Scalar value)
    {
+      /* ints and longs are "0" only when they are 0, no need to make a string to find out */
+      ScalarType temp = value.getActualValue();
+      if (temp != null && (temp.getClass() == IntValue.class || temp.getClass() == LongValue.class))
+      {
+         return temp.longValue() != 0L;
+      }
+
       return (value.getArray() != null || value.getHash() != null) || (value.getActualValue().toString().length() != 0 && !("0".equals(value.getActualValue().toString())));
    }
 }